@@ -0,0 +1,79 @@
+package org.folio.metastorage.javascript;
+
+import io.vertx.core.json.JsonObject;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+
+/**
+ * Process-wide GraalVM engine that all JavaScript contexts are created from.
+ *
+ * <p>Contexts of one engine share parsed and compiled code for sources with the same
+ * content and name, so a script is only warmed up once rather than once per tenant, match
+ * key and module.
+ */
+public final class JavaScriptEngine {
+  private static final Logger log = LogManager.getLogger(JavaScriptEngine.class);
+
+  private static final AtomicInteger contexts = new AtomicInteger();
+
+  private JavaScriptEngine() {
+    throw new UnsupportedOperationException("JavaScriptEngine");
+  }
+
+  private static class LazyInstance {
+    static final Engine engine = Engine.create();
+  }
+
+  /**
+   * Create JavaScript context. Must be closed with {@link #closeContext(Context)}.
+   * @param esModule whether evaluation of ES modules returns the exports
+   * @return context
+   */
+  public static Context createContext(boolean esModule) {
+    Context.Builder builder = Context.newBuilder("js").engine(LazyInstance.engine);
+    if (esModule) {
+      builder.allowExperimentalOptions(true)
+          .option("js.esm-eval-returns-exports", "true");
+    }
+    Context context = builder.build();
+    int count = contexts.incrementAndGet();
+    log.debug("javascript context created; {} contexts, heap used {}", count, getHeapUsed());
+    return context;
+  }
+
+  /**
+   * Close context created with {@link #createContext(boolean)}.
+   * @param context context; cancels any execution in progress
+   */
+  public static void closeContext(Context context) {
+    context.close(true);
+    int count = contexts.decrementAndGet();
+    log.debug("javascript context closed; {} contexts, heap used {}", count, getHeapUsed());
+  }
+
+  public static int getContextCount() {
+    return contexts.get();
+  }
+
+  /**
+   * Get heap used by the JVM, which includes the JavaScript contexts.
+   * @return heap used in bytes
+   */
+  public static long getHeapUsed() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Get metrics.
+   * @return contexts and heapUsed properties
+   */
+  public static JsonObject getMetrics() {
+    return new JsonObject()
+        .put("contexts", getContextCount())
+        .put("heapUsed", getHeapUsed());
+  }
+}
@@ -25,11 +25,24 @@ public interface MatchKeyMethod {
 
   /**
    * Generate match keys.
+   *
+   * <p>May be called from several threads at the same time.
    * @param payload payload with marc and inventory XSLT result
    * @param keys resulting keys (unmodified if no keys were generated).
    */
   void getKeys(JsonObject payload, Collection<String> keys);
 
+  /**
+   * Generate match keys for payload shared with other match key methods.
+   *
+   * <p>May be called from several threads at the same time.
+   * @param payload payload with marc and inventory XSLT result
+   * @param keys resulting keys (unmodified if no keys were generated).
+   */
+  default void getKeys(MatchKeyPayload payload, Collection<String> keys) {
+    getKeys(payload.getJsonObject(), keys);
+  }
+
   /**
    * Close resources for method.
    */
@@ -0,0 +1,35 @@
+package org.folio.metastorage.matchkey;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Payload of one record shared by all match key methods.
+ *
+ * <p>Representations that methods need are computed once, on first use, rather than by
+ * each match key method.
+ */
+public class MatchKeyPayload {
+  private final JsonObject jsonObject;
+  private volatile String encoded;
+
+  public MatchKeyPayload(JsonObject jsonObject) {
+    this.jsonObject = jsonObject;
+  }
+
+  public JsonObject getJsonObject() {
+    return jsonObject;
+  }
+
+  /**
+   * Get payload encoded as JSON string.
+   * @return encoded payload
+   */
+  public String getEncoded() {
+    String s = encoded;
+    if (s == null) {
+      s = jsonObject.encode();
+      encoded = s;
+    }
+    return s;
+  }
+}
@@ -5,27 +5,48 @@ import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.client.predicate.ResponsePredicate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import org.folio.metastorage.javascript.JavaScriptEngine;
 import org.folio.metastorage.matchkey.MatchKeyMethod;
+import org.folio.metastorage.matchkey.MatchKeyPayload;
 import org.folio.okapi.common.WebClientFactory;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 
+/**
+ * Match key method with a JavaScript function.
+ *
+ * <p>A GraalVM context can only be used by one thread at a time, so each thread calling
+ * {@link #getKeys(JsonObject, Collection)} borrows a context of its own from a pool. The
+ * contexts are created on demand with the script(s) evaluated, so there are at most as many
+ * contexts as threads computing keys at the same time.
+ */
 public class MatchKeyJavaScript implements MatchKeyMethod {
 
-  Value getKeysFunction;
-  Context context;
+  private final List<Source> sources = new ArrayList<>();
+  private final Deque<ScriptContext> idle = new ArrayDeque<>();
+  private boolean isModule;
+  private boolean closed;
 
-  Future<Value> evalUrl(Vertx vertx, String url) {
+  static class ScriptContext {
+    Context context;
+    Value getKeysFunction;
+  }
+
+  Future<Source> fetchUrl(Vertx vertx, String url) {
     WebClient webClient = WebClientFactory.getWebClient(vertx);
     String moduleName = url.substring(url.lastIndexOf("/") + 1);
     return webClient.getAbs(url)
         .expect(ResponsePredicate.SC_OK)
         .send()
-        .map(response -> context.eval(Source
+        .map(response -> Source
           .newBuilder("js", response.bodyAsString(), moduleName)
-          .buildLiteral()));
+          .buildLiteral());
   }
 
   @Override
@@ -40,31 +61,58 @@ public class MatchKeyJavaScript implements MatchKeyMethod {
     if (url != null) {
       // if url is specified and ends with mjs, assume it is a ES module that exports a
       // 'matchkey' function, otherwise treat it like a regular script
-      final boolean isModule = url.endsWith("mjs");
-      if (isModule) {
-        context = Context.newBuilder("js")
-            .allowExperimentalOptions(true)
-            .option("js.esm-eval-returns-exports", "true")
-            .build();
-      } else {
-        context = Context.create("js");
-      }
-      future = evalUrl(vertx, url)
-          .map(value -> getKeysFunction = isModule ? value.getMember("matchkey") : value)
-          .mapEmpty();
+      isModule = url.endsWith("mjs");
+      future = fetchUrl(vertx, url).map(source -> sources.add(source)).mapEmpty();
     }
     // if script is specified, we treat it as a regular, non-module JS file which
     // evaluates to a function that accepts an object and returns an array of strings
     if (script != null) {
-      if (context == null) {
-        context = Context.create("js");
+      future = future.map(x -> sources.add(Source.create("js", script))).mapEmpty();
+    }
+    // create first context now, so that errors in scripts are reported here
+    return future.map(x -> {
+      release(createContext());
+      return null;
+    });
+  }
+
+  private ScriptContext createContext() {
+    ScriptContext scriptContext = new ScriptContext();
+    scriptContext.context = JavaScriptEngine.createContext(isModule);
+    try {
+      for (int i = 0; i < sources.size(); i++) {
+        Value value = scriptContext.context.eval(sources.get(i));
+        // the url source comes first; a module exports the function as 'matchkey'
+        scriptContext.getKeysFunction = isModule && i == 0 ? value.getMember("matchkey") : value;
+      }
+    } catch (RuntimeException e) {
+      JavaScriptEngine.closeContext(scriptContext.context);
+      throw e;
+    }
+    return scriptContext;
+  }
+
+  private ScriptContext acquire() {
+    synchronized (idle) {
+      if (closed) {
+        throw new IllegalStateException("javascript: match key method is closed");
+      }
+      ScriptContext scriptContext = idle.poll();
+      if (scriptContext != null) {
+        return scriptContext;
       }
-      future = future
-          .map(v -> getKeysFunction = context.eval("js", script))
-          .mapEmpty();
     }
-    return future;
+    return createContext();
+  }
 
+  private void release(ScriptContext scriptContext) {
+    synchronized (idle) {
+      if (!closed) {
+        idle.push(scriptContext);
+        return;
+      }
+    }
+    JavaScriptEngine.closeContext(scriptContext.context);
   }
 
   private void addValue(Collection<String> keys, Value value) {
@@ -77,22 +125,41 @@ public class MatchKeyJavaScript implements MatchKeyMethod {
 
   @Override
   public void getKeys(JsonObject payload, Collection<String> keys) {
-    Value value = getKeysFunction.execute(payload.encode());
-    if (value.hasArrayElements()) {
-      for (int i = 0; i < value.getArraySize(); i++) {
-        Value memberValue = value.getArrayElement(i);
-        addValue(keys, memberValue);
+    getKeys(new MatchKeyPayload(payload), keys);
+  }
+
+  @Override
+  public void getKeys(MatchKeyPayload payload, Collection<String> keys) {
+    ScriptContext scriptContext = acquire();
+    try {
+      Value value = scriptContext.getKeysFunction.execute(payload.getEncoded());
+      if (value.hasArrayElements()) {
+        for (int i = 0; i < value.getArraySize(); i++) {
+          Value memberValue = value.getArrayElement(i);
+          addValue(keys, memberValue);
+        }
+      } else {
+        addValue(keys, value);
       }
-    } else {
-      addValue(keys, value);
+    } finally {
+      release(scriptContext);
+    }
+  }
+
+  int getIdleContexts() {
+    synchronized (idle) {
+      return idle.size();
     }
   }
 
   @Override
   public void close() {
-    if (context != null) {
-      context.close(true);
-      context = null;
+    List<ScriptContext> contexts;
+    synchronized (idle) {
+      closed = true;
+      contexts = new ArrayList<>(idle);
+      idle.clear();
     }
+    contexts.forEach(scriptContext -> JavaScriptEngine.closeContext(scriptContext.context));
   }
 }
@@ -1,17 +1,23 @@
 package org.folio.metastorage.matchkey.impl;
 
+import com.jayway.jsonpath.Configuration;
 import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.PathNotFoundException;
 import com.jayway.jsonpath.ReadContext;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import java.util.Collection;
-import java.util.List;
 import org.folio.metastorage.matchkey.MatchKeyMethod;
 
 public class MatchKeyJsonPath implements MatchKeyMethod {
 
+  // evaluate on the payload as is; no encoding and parsing for each record
+  private static final Configuration CONFIGURATION = Configuration.builder()
+      .jsonProvider(new VertxJsonProvider())
+      .build();
+
   JsonPath jsonPath;
 
   @Override
@@ -26,18 +32,18 @@ public class MatchKeyJsonPath implements MatchKeyMethod {
 
   @Override
   public void getKeys(JsonObject payload, Collection<String> keys) {
-    ReadContext ctx = JsonPath.parse(payload.encode());
+    ReadContext ctx = JsonPath.using(CONFIGURATION).parse(payload);
     try {
       Object o = ctx.read(jsonPath);
       if (o instanceof String string) {
         keys.add(string);
-      } else if (o instanceof List<?> list) {
-        for (Object m : list) {
+      } else if (o instanceof JsonArray array) {
+        for (Object m : array) {
           if (!(m instanceof String)) {
             return;
           }
         }
-        keys.addAll((List<String>) o);
+        array.forEach(m -> keys.add((String) m));
       }
     } catch (PathNotFoundException e) {
       // ignored.. no keys added
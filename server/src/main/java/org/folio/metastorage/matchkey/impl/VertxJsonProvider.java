@@ -0,0 +1,141 @@
+package org.folio.metastorage.matchkey.impl;
+
+import com.jayway.jsonpath.InvalidJsonException;
+import com.jayway.jsonpath.spi.json.AbstractJsonProvider;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+
+/**
+ * JsonPath provider for Vert.x JsonObject and JsonArray.
+ *
+ * <p>Allows compiled paths to be evaluated directly on a payload without encoding it and
+ * parsing it again. Nested values are returned as JsonObject/JsonArray, so results of
+ * indefinite paths are JsonArray rather than List.
+ */
+public class VertxJsonProvider extends AbstractJsonProvider {
+
+  @Override
+  public Object parse(String json) throws InvalidJsonException {
+    try {
+      return Json.decodeValue(json);
+    } catch (DecodeException e) {
+      throw new InvalidJsonException(e);
+    }
+  }
+
+  @Override
+  public Object parse(InputStream jsonStream, String charset) throws InvalidJsonException {
+    try {
+      return parse(new String(jsonStream.readAllBytes(), charset));
+    } catch (IOException e) {
+      throw new InvalidJsonException(e);
+    }
+  }
+
+  @Override
+  public String toJson(Object obj) {
+    return Json.encode(obj);
+  }
+
+  @Override
+  public Object createArray() {
+    return new JsonArray();
+  }
+
+  @Override
+  public Object createMap() {
+    return new JsonObject();
+  }
+
+  @Override
+  public boolean isArray(Object obj) {
+    return obj instanceof JsonArray || super.isArray(obj);
+  }
+
+  @Override
+  public boolean isMap(Object obj) {
+    return obj instanceof JsonObject || super.isMap(obj);
+  }
+
+  @Override
+  public Object getArrayIndex(Object obj, int idx) {
+    if (obj instanceof JsonArray jsonArray) {
+      return jsonArray.getValue(idx);
+    }
+    return super.getArrayIndex(obj, idx);
+  }
+
+  @Override
+  public void setArrayIndex(Object array, int idx, Object newValue) {
+    if (array instanceof JsonArray jsonArray) {
+      if (idx == jsonArray.size()) {
+        jsonArray.add(newValue);
+      } else {
+        jsonArray.set(idx, newValue);
+      }
+      return;
+    }
+    super.setArrayIndex(array, idx, newValue);
+  }
+
+  @Override
+  public Object getMapValue(Object obj, String key) {
+    if (obj instanceof JsonObject jsonObject) {
+      return jsonObject.containsKey(key) ? jsonObject.getValue(key) : UNDEFINED;
+    }
+    return super.getMapValue(obj, key);
+  }
+
+  @Override
+  public void setProperty(Object obj, Object key, Object value) {
+    if (obj instanceof JsonObject jsonObject) {
+      jsonObject.put(key.toString(), value);
+    } else if (obj instanceof JsonArray jsonArray) {
+      setArrayIndex(jsonArray, key == null ? jsonArray.size() : (Integer) key, value);
+    } else {
+      super.setProperty(obj, key, value);
+    }
+  }
+
+  @Override
+  public void removeProperty(Object obj, Object key) {
+    if (obj instanceof JsonObject jsonObject) {
+      jsonObject.remove(key.toString());
+    } else if (obj instanceof JsonArray jsonArray) {
+      jsonArray.remove(((Integer) key).intValue());
+    } else {
+      super.removeProperty(obj, key);
+    }
+  }
+
+  @Override
+  public Collection<String> getPropertyKeys(Object obj) {
+    if (obj instanceof JsonObject jsonObject) {
+      return jsonObject.fieldNames();
+    }
+    return super.getPropertyKeys(obj);
+  }
+
+  @Override
+  public int length(Object obj) {
+    if (obj instanceof JsonArray jsonArray) {
+      return jsonArray.size();
+    } else if (obj instanceof JsonObject jsonObject) {
+      return jsonObject.size();
+    }
+    return super.length(obj);
+  }
+
+  @Override
+  public Iterable<?> toIterable(Object obj) {
+    if (obj instanceof JsonArray jsonArray) {
+      return jsonArray;
+    }
+    return super.toIterable(obj);
+  }
+}
@@ -6,18 +6,35 @@ import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.client.predicate.ResponsePredicate;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import org.folio.metastorage.javascript.JavaScriptEngine;
 import org.folio.metastorage.module.Module;
 import org.folio.okapi.common.WebClientFactory;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 
+/**
+ * Module with a function of a JavaScript ES module.
+ *
+ * <p>A GraalVM context can only be used by one thread at a time, so each thread calling
+ * {@link #execute(JsonObject)} borrows a context of its own from a pool. The contexts are
+ * created on demand with the module evaluated, so there are at most as many contexts as
+ * threads executing the module at the same time.
+ */
 public class EsModuleImpl implements Module {
 
   private String functionName;
   private String url;
-  private Value function;
-  private Context context;
+  private Source source;
+  private final Deque<ModuleContext> idle = new ArrayDeque<>();
+  private boolean closed;
+
+  static class ModuleContext {
+    Context context;
+    Value function;
+  }
 
   @Override
   public Future<Void> initialize(Vertx vertx, JsonObject config) {
@@ -37,54 +54,99 @@ public class EsModuleImpl implements Module {
       return Future.failedFuture(new IllegalArgumentException(
         "url must end with .mjs to designate ES module"));
     }
-    Context.Builder cb = Context.newBuilder("js")
-        .allowExperimentalOptions(true)
-        .option("js.esm-eval-returns-exports", "true");
-    context = cb.build();
-    return evalUrl(vertx, url)
-      .map(value -> {
-        Value v = value.getMember(functionName);
-        if (v == null || !v.canExecute()) {
-          throw new IllegalArgumentException(
-            "Module " + url + " does not include function " + functionName);
-        }
-        function = v;
+    // create first context now, so that errors in the module are reported here
+    return fetchUrl(vertx, url)
+      .map(s -> {
+        source = s;
+        release(createContext());
         return null;
       });
   }
 
-  private Future<Value> evalUrl(Vertx vertx, String url) {
+  private Future<Source> fetchUrl(Vertx vertx, String url) {
     WebClient webClient = WebClientFactory.getWebClient(vertx);
     String moduleName = url.substring(url.lastIndexOf("/") + 1);
     return webClient.getAbs(url)
         .expect(ResponsePredicate.SC_OK)
         .send()
-        .map(response -> context.eval(Source
+        .map(response -> Source
           .newBuilder("js", response.bodyAsString(), moduleName)
-          .buildLiteral()));
+          .buildLiteral());
+  }
+
+  private ModuleContext createContext() {
+    ModuleContext moduleContext = new ModuleContext();
+    moduleContext.context = JavaScriptEngine.createContext(true);
+    try {
+      Value v = moduleContext.context.eval(source).getMember(functionName);
+      if (v == null || !v.canExecute()) {
+        throw new IllegalArgumentException(
+          "Module " + url + " does not include function " + functionName);
+      }
+      moduleContext.function = v;
+    } catch (RuntimeException e) {
+      JavaScriptEngine.closeContext(moduleContext.context);
+      throw e;
+    }
+    return moduleContext;
+  }
+
+  private ModuleContext acquire() {
+    synchronized (idle) {
+      if (closed) {
+        throw new IllegalStateException("Module " + url + " is terminated");
+      }
+      ModuleContext moduleContext = idle.poll();
+      if (moduleContext != null) {
+        return moduleContext;
+      }
+    }
+    return createContext();
+  }
+
+  private void release(ModuleContext moduleContext) {
+    synchronized (idle) {
+      if (!closed) {
+        idle.push(moduleContext);
+        return;
+      }
+    }
+    JavaScriptEngine.closeContext(moduleContext.context);
   }
 
   @Override
   public Future<JsonObject> execute(JsonObject input) {
-    Value output = function.execute(input.encode());
-    if (output.isString()) {
-      //only support string encoded JSON objects for now
-      try {
-        return Future.succeededFuture(new JsonObject(output.asString()));
-      } catch (DecodeException de) {
-        return Future.failedFuture(de);
+    ModuleContext moduleContext = acquire();
+    try {
+      Value output = moduleContext.function.execute(input.encode());
+      if (output.isString()) {
+        //only support string encoded JSON objects for now
+        try {
+          return Future.succeededFuture(new JsonObject(output.asString()));
+        } catch (DecodeException de) {
+          return Future.failedFuture(de);
+        }
+      } else {
+        return Future.failedFuture(
+          "Function " + functionName + " of module " + url + " must return JSON string");
       }
-    } else {
-      return Future.failedFuture(
-        "Function " + functionName + " of module " + url + " must return JSON string");
+    } finally {
+      release(moduleContext);
+    }
+  }
+
+  int getIdleContexts() {
+    synchronized (idle) {
+      return idle.size();
     }
   }
 
   @Override
   public Future<Void> terminate() {
-    if (context != null) {
-      context.close(true);
-      context = null;
+    synchronized (idle) {
+      closed = true;
+      idle.forEach(moduleContext -> JavaScriptEngine.closeContext(moduleContext.context));
+      idle.clear();
     }
     return Future.succeededFuture();
   }
@@ -3,8 +3,8 @@ package org.folio.metastorage.module.impl;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.folio.metastorage.module.Module;
 import org.folio.metastorage.module.ModuleCache;
 
@@ -18,7 +18,7 @@ public class ModuleCacheImpl implements ModuleCache {
     return LazyInstance.instance;
   }
 
-  private Map<String, CacheEntry> entries = new HashMap<>();
+  private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
 
   private ModuleCacheImpl() { }
 
@@ -0,0 +1,140 @@
+package org.folio.metastorage.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Cluster assignment for a batch of records for one match key.
+ *
+ * <p>Records, existing clusters and new match values are nodes that are joined when a
+ * record has a match value. Each connected component ends up as one cluster: an existing
+ * cluster if the component has any (others are merged into it) or a new cluster.
+ */
+public class ClusterBatch {
+
+  private final Map<UUID, Set<String>> recordKeys = new LinkedHashMap<>();
+  private final Map<Object, Object> parent = new HashMap<>();
+
+  private final Map<UUID, UUID> recordClusters = new LinkedHashMap<>();
+  private final Map<UUID, UUID> mergedClusters = new LinkedHashMap<>();
+  private final Set<UUID> newClusters = new HashSet<>();
+  private final Set<UUID> foundClusters = new HashSet<>();
+  private final Map<String, UUID> newValues = new LinkedHashMap<>();
+
+  /**
+   * Add record with its match values.
+   * @param recordId global record identifier
+   * @param keys match values for record
+   */
+  public void addRecord(UUID recordId, Collection<String> keys) {
+    recordKeys.put(recordId, new HashSet<>(keys));
+  }
+
+  /**
+   * Get all match values of records in batch.
+   * @return match values
+   */
+  public Set<String> getKeys() {
+    Set<String> keys = new HashSet<>();
+    recordKeys.values().forEach(keys::addAll);
+    return keys;
+  }
+
+  private Object find(Object node) {
+    Object root = node;
+    Object p = parent.get(root);
+    while (p != null && !p.equals(root)) {
+      root = p;
+      p = parent.get(root);
+    }
+    // path compression
+    while (!node.equals(root)) {
+      Object next = parent.put(node, root);
+      node = next;
+    }
+    return root;
+  }
+
+  private void union(Object a, Object b) {
+    parent.putIfAbsent(a, a);
+    parent.putIfAbsent(b, b);
+    Object rootA = find(a);
+    Object rootB = find(b);
+    if (!rootA.equals(rootB)) {
+      parent.put(rootB, rootA);
+    }
+  }
+
+  /**
+   * Compute cluster for each record.
+   * @param found existing match values with their cluster identifier
+   */
+  public void resolve(Map<String, UUID> found) {
+    for (Map.Entry<UUID, Set<String>> entry : recordKeys.entrySet()) {
+      UUID recordId = entry.getKey();
+      parent.putIfAbsent(recordId, recordId);
+      for (String key : entry.getValue()) {
+        UUID clusterId = found.get(key);
+        union(recordId, clusterId != null ? clusterId : key);
+      }
+    }
+    Map<Object, List<Object>> components = new LinkedHashMap<>();
+    new ArrayList<>(parent.keySet()).forEach(node ->
+        components.computeIfAbsent(find(node), x -> new ArrayList<>()).add(node));
+    Set<UUID> existing = new HashSet<>(found.values());
+    for (List<Object> component : components.values()) {
+      TreeSet<UUID> clusters = new TreeSet<>();
+      component.forEach(node -> {
+        if (existing.contains(node)) {
+          clusters.add((UUID) node);
+        }
+      });
+      UUID clusterId;
+      if (clusters.isEmpty()) {
+        clusterId = UUID.randomUUID();
+        newClusters.add(clusterId);
+      } else {
+        clusterId = clusters.first();
+        foundClusters.addAll(clusters);
+        for (UUID mergedId : clusters.tailSet(clusterId, false)) {
+          mergedClusters.put(mergedId, clusterId);
+        }
+      }
+      for (Object node : component) {
+        if (node instanceof String key) {
+          newValues.put(key, clusterId);
+        } else if (recordKeys.containsKey(node)) {
+          recordClusters.put((UUID) node, clusterId);
+        }
+      }
+    }
+  }
+
+  public Map<UUID, UUID> getRecordClusters() {
+    return recordClusters;
+  }
+
+  public Map<UUID, UUID> getMergedClusters() {
+    return mergedClusters;
+  }
+
+  public Set<UUID> getNewClusters() {
+    return newClusters;
+  }
+
+  public Set<UUID> getFoundClusters() {
+    return foundClusters;
+  }
+
+  public Map<String, UUID> getNewValues() {
+    return newValues;
+  }
+}
@@ -9,26 +9,49 @@ import io.vertx.codegen.annotations.Nullable;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.streams.WriteStream;
 import io.vertx.sqlclient.SqlConnection;
 import io.vertx.sqlclient.Tuple;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.folio.metastorage.module.Module;
 import org.folio.metastorage.server.entity.ClusterBuilder;
 import org.folio.metastorage.util.JsonToMarcXml;
 
+/**
+ * Stream of OAI-PMH records for clusters.
+ *
+ * <p>Clusters written are collected in chunks of {@link #setWriteQueueMaxSize(int)}. The
+ * records and match values of all clusters in a chunk are fetched with one query each,
+ * then the clusters are rendered and written in the order written. The next chunk is
+ * collected while a chunk is fetched and rendered. With a {@link OaiRecordCache}, cached
+ * metadata is used for clusters that have not changed, and only the other clusters are
+ * fetched. With a transformer module, the clusters of a chunk are transformed in parallel
+ * in worker threads; the module has a JavaScript context for each thread. Cached
+ * metadata is also compressed and decompressed in worker threads. Only records with
+ * metadata, which includes match values, are added to the cache.
+ */
 public class ClusterRecordStream implements WriteStream<ClusterRecordItem> {
 
   private static final Logger log = LogManager.getLogger(ClusterRecordStream.class);
   boolean ended;
 
-  Set<ClusterRecordItem> work = new HashSet<>();
+  List<ClusterRecordItem> pending = new ArrayList<>();
+
+  Promise<Void> pendingPromise = Promise.promise();
+
+  boolean flushing;
 
   Storage storage;
 
@@ -46,14 +69,18 @@ public class ClusterRecordStream implements WriteStream<ClusterRecordItem> {
 
   SqlConnection connection;
 
-  int writeQueueMaxSize = 5;
+  int writeQueueMaxSize = 100;
 
   Vertx vertx;
 
+  OaiRecordCache recordCache;
+
   ClusterRecordStream(
       Vertx vertx, Storage storage, SqlConnection connection,
-      WriteStream<Buffer> response, Module module, boolean withMetadata) {
+      WriteStream<Buffer> response, Module module, OaiRecordCache recordCache,
+      boolean withMetadata) {
     this.response = response;
+    this.recordCache = recordCache;
     this.module = module;
     this.withMetadata = withMetadata;
     this.storage = storage;
@@ -67,90 +94,202 @@ public class ClusterRecordStream implements WriteStream<ClusterRecordItem> {
     return this;
   }
 
-  Future<ClusterBuilder> populateCluster(ClusterRecordItem cr) {
+  /**
+   * Get records and, with metadata, match values of clusters.
+   * @param items clusters
+   * @return async result with cluster builders; a deleted cluster has no entry
+   */
+  Future<Map<UUID, ClusterBuilder>> populateClusters(List<ClusterRecordItem> items) {
+    UUID[] clusterIds = items.stream().map(cr -> cr.clusterId).distinct().toArray(UUID[]::new);
     String q = "SELECT * FROM " + storage.getGlobalRecordTable()
         + " LEFT JOIN " + storage.getClusterRecordTable() + " ON record_id = id "
-        + " WHERE cluster_id = $1";
+        + " WHERE cluster_id = ANY($1)";
     return connection.preparedQuery(q)
-        .execute(Tuple.of(cr.clusterId))
+        .execute(Tuple.of(clusterIds))
         .compose(rowSet -> {
-          if (rowSet.size() == 0) {
-            return Future.succeededFuture(null); // deleted record
-          }
-          ClusterBuilder cb = new ClusterBuilder(cr.clusterId).records(rowSet);
+          Map<UUID, JsonArray> records = new HashMap<>();
+          rowSet.forEach(row -> records
+              .computeIfAbsent(row.getUUID("cluster_id"), id -> new JsonArray())
+              .add(ClusterBuilder.encodeRecord(row)));
+          Map<UUID, ClusterBuilder> clusters = new HashMap<>();
+          records.forEach((id, clusterRecords) ->
+              clusters.put(id, new ClusterBuilder(id).records(clusterRecords)));
           if (!withMetadata) {
-            return Future.succeededFuture(cb);
+            return Future.succeededFuture(clusters);
           }
-          return getClusterValues(storage, connection, cr.clusterId, cb);
+          return getClusterValues(storage, connection, clusterIds, clusters).map(clusters);
         });
   }
 
+  /**
+   * Clusters to render, each with cached metadata or records.
+   */
+  private static class Chunk {
+    Map<UUID, byte[]> cached = Map.of();
+    Map<UUID, ClusterBuilder> clusters = Map.of();
+    // compressed in worker threads
+    final Map<ClusterRecordItem, byte[]> rendered = new ConcurrentHashMap<>();
+  }
+
+  Future<Chunk> fetch(List<ClusterRecordItem> items) {
+    Chunk chunk = new Chunk();
+    Future<Map<UUID, byte[]>> future = recordCache != null
+        ? recordCache.get(connection, items) : Future.succeededFuture(Map.of());
+    return future.compose(cached -> {
+      chunk.cached = cached;
+      List<ClusterRecordItem> misses = new ArrayList<>();
+      items.forEach(cr -> {
+        if (!cached.containsKey(cr.clusterId)) {
+          misses.add(cr);
+        }
+      });
+      if (misses.isEmpty()) {
+        return Future.succeededFuture(chunk);
+      }
+      return populateClusters(misses).map(clusters -> {
+        chunk.clusters = clusters;
+        return chunk;
+      });
+    });
+  }
+
+  void store(Chunk chunk) {
+    if (recordCache == null || chunk.rendered.isEmpty()) {
+      return;
+    }
+    recordCache.put(chunk.rendered)
+        .onFailure(e -> log.warn("record cache not updated: {}", e.getMessage(), e));
+  }
+
   Future<Buffer> getClusterRecordMetadata(ClusterRecordItem cr) {
-    return populateCluster(cr)
-        .compose(cb -> {
-          Future<String> future;
-          if (cb == null) {
-            future = Future.succeededFuture(null); // deleted record
-          } else if (module == null) {
-            future = Future.succeededFuture(getMetadataJava(cb.build()));
-          } else {
-            JsonObject build = cb.build();
-            future = vertx.executeBlocking(prom -> {
-              try {
-                prom.handle(module.execute(build).map(JsonToMarcXml::convert));
-              } catch (Exception e) {
-                prom.fail(e);
-              }
-            });
-          }
-          return future.map(metadata -> {
-            String begin = withMetadata ? "    <record>\n" : "";
-            String end = withMetadata ? "    </record>\n" : "";
-            return Buffer.buffer(
-                begin
-                    + "      <header" + (metadata == null
-                    ? " status=\"deleted\"" : "") + ">\n"
-                    + "        <identifier>"
-                    + encodeXmlText(encodeOaiIdentifier(cr.clusterId)) + "</identifier>\n"
-                    + "        <datestamp>"
-                    + encodeXmlText(Util.formatOaiDateTime(cr.datestamp))
-                    + "</datestamp>\n"
-                    + "        <setSpec>" + encodeXmlText(cr.oaiSet) + "</setSpec>\n"
-                    + "      </header>\n"
-                    + (withMetadata && metadata != null
-                    ? "    <metadata>\n" + metadata + "\n"
-                    + "    </metadata>\n"
-                    : "")
-                    + end);
+    return fetch(List.of(cr))
+        .compose(chunk -> render(chunk, cr).onSuccess(x -> store(chunk)));
+  }
+
+  Future<Buffer> render(Chunk chunk, ClusterRecordItem cr) {
+    byte[] cached = chunk.cached.get(cr.clusterId);
+    ClusterBuilder cb = chunk.clusters.get(cr.clusterId);
+    if (cached == null && cb == null) {
+      return Future.succeededFuture(recordBuffer(cr, null)); // deleted record
+    }
+    // without metadata, match values are not fetched, so the result is not cached
+    boolean store = cached == null && recordCache != null && withMetadata;
+    if (cached == null && module == null && !store) {
+      return Future.succeededFuture(recordBuffer(cr, getMetadataJava(cb.build())));
+    }
+    JsonObject build = cached == null ? cb.build() : null;
+    // unordered, so that the clusters of a chunk are rendered in parallel
+    return vertx.<String>executeBlocking(prom -> {
+      try {
+        if (cached != null) {
+          prom.complete(OaiRecordCache.decompress(cached));
+          return;
+        }
+        Future<String> metadata = module == null
+            ? Future.succeededFuture(getMetadataJava(build))
+            : module.execute(build).map(JsonToMarcXml::convert);
+        if (store) {
+          metadata = metadata.map(m -> {
+            if (m != null) {
+              chunk.rendered.put(cr, OaiRecordCache.compress(m));
+            }
+            return m;
           });
-        });
+        }
+        prom.handle(metadata);
+      } catch (Exception e) {
+        prom.fail(e);
+      }
+    }, false).map(metadata -> recordBuffer(cr, metadata));
   }
 
-  Future<Void> perform(ClusterRecordItem cr) {
-    return getClusterRecordMetadata(cr)
-        .compose(buf -> response.write(buf).mapEmpty())
-        .recover(e -> {
-          log.info("failure {}", e.getMessage(), e);
-          return response.write(Buffer.buffer("<!-- Failed to produce record: "
-              + encodeXmlText(e.getMessage()) + " -->\n")).mapEmpty();
-        })
-        .mapEmpty();
+  Buffer recordBuffer(ClusterRecordItem cr, String metadata) {
+    String begin = withMetadata ? "    <record>\n" : "";
+    String end = withMetadata ? "    </record>\n" : "";
+    return Buffer.buffer(
+        begin
+            + "      <header" + (metadata == null
+            ? " status=\"deleted\"" : "") + ">\n"
+            + "        <identifier>"
+            + encodeXmlText(encodeOaiIdentifier(cr.clusterId)) + "</identifier>\n"
+            + "        <datestamp>"
+            + encodeXmlText(Util.formatOaiDateTime(cr.datestamp))
+            + "</datestamp>\n"
+            + "        <setSpec>" + encodeXmlText(cr.oaiSet) + "</setSpec>\n"
+            + "      </header>\n"
+            + (withMetadata && metadata != null
+            ? "    <metadata>\n" + metadata + "\n"
+            + "    </metadata>\n"
+            : "")
+            + end);
   }
 
-  @Override
-  public Future<Void> write(ClusterRecordItem cr) {
-    work.add(cr);
-    return perform(cr).onComplete(x -> {
-      work.remove(cr);
-      if (work.size() == writeQueueMaxSize - 1 && !ended) {
-        drainHandler.handle(null);
-      }
-      if (work.isEmpty() && ended) {
-        this.endHandler.handle(Future.succeededFuture());
+  private Future<Void> writeFailure(Throwable e) {
+    log.info("failure {}", e.getMessage(), e);
+    return response.write(Buffer.buffer("<!-- Failed to produce record: "
+        + encodeXmlText(e.getMessage()) + " -->\n"));
+  }
+
+  Future<Void> perform(List<ClusterRecordItem> items) {
+    return fetch(items)
+        .compose(chunk -> {
+          // render all at once, but write in order
+          List<Future<Buffer>> buffers = new ArrayList<>(items.size());
+          for (ClusterRecordItem cr : items) {
+            try {
+              buffers.add(render(chunk, cr));
+            } catch (RuntimeException e) {
+              buffers.add(Future.failedFuture(e));
+            }
+          }
+          Future<Void> future = Future.succeededFuture();
+          for (Future<Buffer> buffer : buffers) {
+            future = future.compose(x -> buffer
+                .compose(buf -> response.write(buf))
+                .recover(this::writeFailure));
+          }
+          return future.onComplete(x -> store(chunk));
+        }, this::writeFailure);
+  }
+
+  /**
+   * Fetch and render pending chunk, unless one is in progress or the chunk is not full.
+   */
+  private void flush() {
+    if (flushing) {
+      return;
+    }
+    if (pending.isEmpty() || (!ended && pending.size() < writeQueueMaxSize)) {
+      if (ended && pending.isEmpty() && endHandler != null) {
+        Handler<AsyncResult<Void>> handler = endHandler;
+        endHandler = null;
+        handler.handle(Future.succeededFuture());
       }
+      return;
+    }
+    flushing = true;
+    final List<ClusterRecordItem> chunk = pending;
+    final Promise<Void> promise = pendingPromise;
+    pending = new ArrayList<>();
+    pendingPromise = Promise.promise();
+    if (!ended && drainHandler != null) {
+      drainHandler.handle(null);
+    }
+    perform(chunk).onComplete(x -> {
+      flushing = false;
+      promise.handle(x);
+      flush();
     });
   }
 
+  @Override
+  public Future<Void> write(ClusterRecordItem cr) {
+    pending.add(cr);
+    Future<Void> future = pendingPromise.future();
+    flush();
+    return future;
+  }
+
   @Override
   public void write(ClusterRecordItem clusterRecord, Handler<AsyncResult<Void>> handler) {
     write(clusterRecord).onComplete(handler);
@@ -163,9 +302,7 @@ public class ClusterRecordStream implements WriteStream<ClusterRecordItem> {
     }
     ended = true;
     this.endHandler = handler;
-    if (work.isEmpty()) {
-      this.endHandler.handle(Future.succeededFuture());
-    }
+    flush();
   }
 
   @Override
@@ -176,7 +313,7 @@ public class ClusterRecordStream implements WriteStream<ClusterRecordItem> {
 
   @Override
   public boolean writeQueueFull() {
-    return work.size() >= writeQueueMaxSize;
+    return pending.size() >= writeQueueMaxSize;
   }
 
   @Override
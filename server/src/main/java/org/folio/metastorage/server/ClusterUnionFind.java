@@ -0,0 +1,285 @@
+package org.folio.metastorage.server;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Clusters for all records of one match key, computed in memory.
+ *
+ * <p>Used when rebuilding clusters from scratch. Records and distinct match values are
+ * nodes of a union-find over int arrays; match values are dictionary-encoded to node
+ * numbers and record identifiers are kept as two longs, so there is no object per record.
+ * Each connected component is a cluster. After {@link #build()}, results are available
+ * by index and the union-find arrays are released.
+ *
+ * <p>Records and values may be given with the cluster they are in already. A component
+ * with exactly the records and values of an existing cluster keeps the identifier of that
+ * cluster; other components get new identifiers.
+ */
+public class ClusterUnionFind {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private Map<String, Integer> valueNodes;
+  private int[] parent;
+  private byte[] rank;
+  // existing cluster of each node; 0, 0 for none
+  private long[] existingMsb;
+  private long[] existingLsb;
+  private int nodes;
+  private Set<UUID> changedClusters = new HashSet<>();
+
+  private long[] recordMsb;
+  private long[] recordLsb;
+  private int[] recordNode;
+  private int records;
+
+  private int[] recordCluster;
+  private String[] values;
+  private int[] valueCluster;
+  private long[] clusterMsb;
+  private long[] clusterLsb;
+  private boolean[] clusterExisting;
+
+  public ClusterUnionFind() {
+    this(0);
+  }
+
+  /**
+   * Create with capacity for the expected number of records.
+   *
+   * <p>Records typically have a match value or two, so the capacity for values is the
+   * same as for records, which avoids rehashing the values as they are added.
+   * @param expectedRecords estimated number of records
+   */
+  public ClusterUnionFind(int expectedRecords) {
+    int capacity = Math.max(INITIAL_CAPACITY, expectedRecords);
+    valueNodes = new HashMap<>((int) (capacity / 0.75f) + 1);
+    parent = new int[2 * capacity];
+    rank = new byte[2 * capacity];
+    existingMsb = new long[2 * capacity];
+    existingLsb = new long[2 * capacity];
+    recordMsb = new long[capacity];
+    recordLsb = new long[capacity];
+    recordNode = new int[capacity];
+  }
+
+  private int newNode() {
+    if (nodes == parent.length) {
+      parent = Arrays.copyOf(parent, nodes * 2);
+      rank = Arrays.copyOf(rank, nodes * 2);
+      existingMsb = Arrays.copyOf(existingMsb, nodes * 2);
+      existingLsb = Arrays.copyOf(existingLsb, nodes * 2);
+    }
+    parent[nodes] = nodes;
+    return nodes++;
+  }
+
+  private void setExisting(int node, UUID clusterId) {
+    if (clusterId != null) {
+      existingMsb[node] = clusterId.getMostSignificantBits();
+      existingLsb[node] = clusterId.getLeastSignificantBits();
+    }
+  }
+
+  private void checkNotBuilt() {
+    if (recordCluster != null) {
+      throw new IllegalStateException("clusters already built");
+    }
+  }
+
+  private int find(int node) {
+    while (parent[node] != node) {
+      // path halving
+      parent[node] = parent[parent[node]];
+      node = parent[node];
+    }
+    return node;
+  }
+
+  private void union(int a, int b) {
+    int rootA = find(a);
+    int rootB = find(b);
+    if (rootA == rootB) {
+      return;
+    }
+    if (rank[rootA] < rank[rootB]) {
+      parent[rootA] = rootB;
+    } else if (rank[rootA] > rank[rootB]) {
+      parent[rootB] = rootA;
+    } else {
+      parent[rootB] = rootA;
+      rank[rootA]++;
+    }
+  }
+
+  /**
+   * Add record with its match values.
+   * @param recordId global record identifier; each record must be added once
+   * @param keys match values for record
+   */
+  public void addRecord(UUID recordId, Collection<String> keys) {
+    addRecord(recordId, null, keys);
+  }
+
+  /**
+   * Add record with its match values and the cluster it is in.
+   * @param recordId global record identifier; each record must be added once
+   * @param clusterId existing cluster of record; null for none
+   * @param keys match values for record
+   */
+  public void addRecord(UUID recordId, UUID clusterId, Collection<String> keys) {
+    checkNotBuilt();
+    if (records == recordNode.length) {
+      recordMsb = Arrays.copyOf(recordMsb, records * 2);
+      recordLsb = Arrays.copyOf(recordLsb, records * 2);
+      recordNode = Arrays.copyOf(recordNode, records * 2);
+    }
+    int node = newNode();
+    setExisting(node, clusterId);
+    recordMsb[records] = recordId.getMostSignificantBits();
+    recordLsb[records] = recordId.getLeastSignificantBits();
+    recordNode[records] = node;
+    records++;
+    for (String key : keys) {
+      Integer valueNode = valueNodes.get(key);
+      if (valueNode == null) {
+        valueNode = newNode();
+        valueNodes.put(key, valueNode);
+      }
+      union(node, valueNode);
+    }
+  }
+
+  /**
+   * Add match value with the cluster it is in, after all records are added.
+   * @param value match value
+   * @param clusterId existing cluster of value
+   */
+  public void addExistingValue(String value, UUID clusterId) {
+    checkNotBuilt();
+    Integer node = valueNodes.get(value);
+    if (node == null) {
+      changedClusters.add(clusterId); // no record has the value anymore
+    } else {
+      setExisting(node, clusterId);
+    }
+  }
+
+  /**
+   * Compute connected components and give each a cluster identifier.
+   */
+  public void build() {
+    int[] component = new int[nodes];
+    Arrays.fill(component, -1);
+    int clusters = 0;
+    recordCluster = new int[records];
+    for (int i = 0; i < records; i++) {
+      int root = find(recordNode[i]);
+      if (component[root] == -1) {
+        component[root] = clusters++;
+      }
+      recordCluster[i] = component[root];
+    }
+    // a component is an existing cluster if all its nodes and no other nodes are in it
+    long[] keepMsb = new long[clusters];
+    long[] keepLsb = new long[clusters];
+    boolean[] seen = new boolean[clusters];
+    boolean[] mixed = new boolean[clusters];
+    Map<UUID, Integer> existingComponent = new HashMap<>();
+    for (int n = 0; n < nodes; n++) {
+      int c = component[find(n)];
+      if (!seen[c]) {
+        seen[c] = true;
+        keepMsb[c] = existingMsb[n];
+        keepLsb[c] = existingLsb[n];
+      } else if (keepMsb[c] != existingMsb[n] || keepLsb[c] != existingLsb[n]) {
+        mixed[c] = true;
+      }
+      if (existingMsb[n] != 0 || existingLsb[n] != 0) {
+        existingComponent.merge(new UUID(existingMsb[n], existingLsb[n]), c,
+            (a, b) -> a.equals(b) ? a : -1);
+      }
+    }
+    values = new String[valueNodes.size()];
+    valueCluster = new int[valueNodes.size()];
+    int i = 0;
+    for (Map.Entry<String, Integer> entry : valueNodes.entrySet()) {
+      values[i] = entry.getKey();
+      // every value belongs to at least one record, so its component is numbered
+      valueCluster[i] = component[find(entry.getValue())];
+      i++;
+    }
+    clusterMsb = new long[clusters];
+    clusterLsb = new long[clusters];
+    clusterExisting = new boolean[clusters];
+    for (int c = 0; c < clusters; c++) {
+      UUID clusterId = null;
+      if (!mixed[c] && (keepMsb[c] != 0 || keepLsb[c] != 0)) {
+        UUID existing = new UUID(keepMsb[c], keepLsb[c]);
+        if (existingComponent.get(existing) == c && !changedClusters.contains(existing)) {
+          clusterId = existing;
+          clusterExisting[c] = true;
+        }
+      }
+      if (clusterId == null) {
+        clusterId = UUID.randomUUID();
+      }
+      clusterMsb[c] = clusterId.getMostSignificantBits();
+      clusterLsb[c] = clusterId.getLeastSignificantBits();
+    }
+    valueNodes = null;
+    parent = null;
+    rank = null;
+    existingMsb = null;
+    existingLsb = null;
+    changedClusters = null;
+    recordNode = null;
+  }
+
+  public int getRecordCount() {
+    return records;
+  }
+
+  public UUID getRecordId(int i) {
+    return new UUID(recordMsb[i], recordLsb[i]);
+  }
+
+  public UUID getRecordClusterId(int i) {
+    return getClusterId(recordCluster[i]);
+  }
+
+  public int getValueCount() {
+    return values.length;
+  }
+
+  public String getValue(int i) {
+    return values[i];
+  }
+
+  public UUID getValueClusterId(int i) {
+    return getClusterId(valueCluster[i]);
+  }
+
+  public int getClusterCount() {
+    return clusterMsb.length;
+  }
+
+  public UUID getClusterId(int c) {
+    return new UUID(clusterMsb[c], clusterLsb[c]);
+  }
+
+  /**
+   * Whether cluster is an existing cluster, unchanged.
+   * @param c cluster index
+   * @return true if identifier of existing cluster; false if new identifier
+   */
+  public boolean isExistingCluster(int c) {
+    return clusterExisting[c];
+  }
+}
@@ -1,5 +1,6 @@
 package org.folio.metastorage.server;
 
+import org.folio.metastorage.javascript.JavaScriptEngine;
 import org.graalvm.polyglot.Value;
 
 public final class JavaScriptCheck {
@@ -18,11 +19,15 @@ public final class JavaScriptCheck {
   }
 
   static void check(String script) {
-    org.graalvm.polyglot.Context context = org.graalvm.polyglot.Context.create("js");
-    Value func = context.eval("js", script);
-    Value value = func.execute();
-    boolean ok = value.isNumber() && value.asLong() == 1L;
-    context.close();
+    org.graalvm.polyglot.Context context = JavaScriptEngine.createContext(false);
+    boolean ok;
+    try {
+      Value func = context.eval("js", script);
+      Value value = func.execute();
+      ok = value.isNumber() && value.asLong() == 1L;
+    } finally {
+      JavaScriptEngine.closeContext(context);
+    }
     if (!ok) {
       throw new IllegalStateException("Unexpected result from javascript engine");
     }
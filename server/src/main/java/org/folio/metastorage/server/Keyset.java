@@ -0,0 +1,104 @@
+package org.folio.metastorage.server;
+
+import io.vertx.sqlclient.Row;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Keyset pagination of a streaming result on a unique column.
+ *
+ * <p>Rather than skipping over offset rows, a page is selected with {@code column > last}
+ * in column order, so that each page costs the same however deep into the result. The
+ * last value is passed between requests as an opaque cursor. A cursor of {@link #START}
+ * selects the first page.
+ */
+class Keyset {
+
+  static final String START = "*";
+
+  private static final char UUID_TYPE = 'u';
+  private static final char STRING_TYPE = 's';
+
+  private final String column;
+  private final String label;
+  private final int limit;
+  private Object last;
+  private int rows;
+
+  /**
+   * Create keyset for a page.
+   * @param column column, possibly qualified with table
+   * @param limit number of rows in a page
+   */
+  Keyset(String column, int limit) {
+    this.column = column;
+    this.label = column.substring(column.lastIndexOf('.') + 1);
+    this.limit = limit;
+  }
+
+  String getColumn() {
+    return column;
+  }
+
+  /**
+   * Decode cursor.
+   * @param cursor cursor from {@link #encode(Object)} or {@link #START}
+   * @return last value of previous page; null for first page
+   * @throws IllegalArgumentException if cursor is not valid
+   */
+  static Object decode(String cursor) {
+    if (START.equals(cursor)) {
+      return null;
+    }
+    String value;
+    try {
+      value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid cursor " + cursor);
+    }
+    if (value.isEmpty()) {
+      throw new IllegalArgumentException("Invalid cursor " + cursor);
+    }
+    switch (value.charAt(0)) {
+      case UUID_TYPE:
+        try {
+          return UUID.fromString(value.substring(1));
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+      case STRING_TYPE:
+        return value.substring(1);
+      default:
+        throw new IllegalArgumentException("Invalid cursor " + cursor);
+    }
+  }
+
+  /**
+   * Encode value as cursor.
+   * @param value UUID or string value of column
+   * @return cursor
+   */
+  static String encode(Object value) {
+    String s = (value instanceof UUID ? UUID_TYPE : STRING_TYPE) + value.toString();
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Register row of page.
+   * @param row row with column
+   */
+  void add(Row row) {
+    last = row.getValue(label);
+    rows++;
+  }
+
+  /**
+   * Get cursor for next page.
+   * @return cursor; null if this page is the last one
+   */
+  String next() {
+    return rows == limit && last != null ? encode(last) : null;
+  }
+}
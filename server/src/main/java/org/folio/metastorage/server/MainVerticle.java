@@ -5,6 +5,7 @@ import io.vertx.core.Promise;
 import io.vertx.core.http.HttpServerOptions;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.folio.metastorage.javascript.JavaScriptEngine;
 import org.folio.okapi.common.Config;
 import org.folio.okapi.common.ModuleVersionReporter;
 import org.folio.tlib.RouterCreator;
@@ -25,6 +26,31 @@ public class MainVerticle extends AbstractVerticle {
         Config.getSysConf("http.port", "port", "8081", config()));
     log.info("Listening on port {}", port);
 
+    Storage.setIngestBatchSize(Integer.parseInt(
+        Config.getSysConf("ingest.batch.size", "ingestBatchSize", "100", config())));
+    Storage.setIngestConcurrencyMax(Integer.parseInt(
+        Config.getSysConf("ingest.concurrency.max", "ingestConcurrencyMax", "32", config())));
+    Storage.setCountEstimateThreshold(Integer.parseInt(
+        Config.getSysConf("count.estimate.threshold", "countEstimateThreshold", "10000",
+            config())));
+    Storage.setStreamWriteQueueMaxSize(Integer.parseInt(
+        Config.getSysConf("stream.write.queue.max.size", "streamWriteQueueMaxSize", "65536",
+            config())));
+    StreamTransaction.setStatementTimeout(Integer.parseInt(
+        Config.getSysConf("stream.statement.timeout", "streamStatementTimeout", "0", config())));
+    MatchKeyInitializeJob.setPartitions(Integer.parseInt(
+        Config.getSysConf("initialize.partitions", "initializePartitions", "4", config())));
+
+    long metricsInterval = Long.parseLong(
+        Config.getSysConf("javascript.metrics.interval", "javascriptMetricsInterval", "0",
+            config()));
+    if (metricsInterval > 0) {
+      vertx.setPeriodic(metricsInterval * 1000L, id ->
+          log.info("javascript {}", JavaScriptEngine.getMetrics().encode()));
+    }
+
+    // stop is not called if start fails
+    MatchKeyConfigCache.acquire();
     MetaStorageService sharedIndexService = new MetaStorageService(vertx);
 
     RouterCreator[] routerCreators = {
@@ -49,6 +75,12 @@ public class MainVerticle extends AbstractVerticle {
             e.complete();
           })
         )
+        .onFailure(e -> MatchKeyConfigCache.release())
         .onComplete(x -> promise.handle(x.mapEmpty()));
   }
+
+  @Override
+  public void stop(Promise<Void> promise) {
+    MatchKeyConfigCache.release().onComplete(promise);
+  }
 }
@@ -0,0 +1,218 @@
+package org.folio.metastorage.server;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.net.PemTrustOptions;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.pgclient.PgConnection;
+import io.vertx.pgclient.SslMode;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Tuple;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Match key configurations for each tenant, cached in memory.
+ *
+ * <p>Configurations are only cached while this instance listens for notifications
+ * on {@link #CHANNEL}. Any instance modifying configurations of a tenant notifies with
+ * the tenant as payload (see {@link #notify(SqlConnection, String)}), so that all instances
+ * sharing the database drop their copy. The listening connection is kept open for good, so
+ * it is a connection of its own rather than one of the pool. If it is lost, the cache is
+ * cleared and a new connection is made; configurations are read from the database until
+ * listening again. The connection is shared by all verticle instances of the process, which
+ * register with {@link #acquire()} and {@link #release()}; it is closed when the last one is
+ * released.
+ */
+public final class MatchKeyConfigCache {
+  private static final Logger log = LogManager.getLogger(MatchKeyConfigCache.class);
+
+  static final String CHANNEL = "metastorage_match_key_config";
+
+  private static final Map<String, Future<JsonArray>> configs = new ConcurrentHashMap<>();
+  private static PgConnectOptions connectOptions = getConnectOptions(System.getenv());
+  private static Future<PgConnection> listener;
+  private static int users;
+
+  private MatchKeyConfigCache() {
+    throw new UnsupportedOperationException("MatchKeyConfigCache");
+  }
+
+  /**
+   * Get options for listening connection from environment.
+   * @param env environment with the DB_ variables that the pool is configured with
+   * @return connect options
+   */
+  static PgConnectOptions getConnectOptions(Map<String, String> env) {
+    PgConnectOptions options = new PgConnectOptions();
+    if (env.get("DB_HOST") != null) {
+      options.setHost(env.get("DB_HOST"));
+    }
+    if (env.get("DB_PORT") != null) {
+      options.setPort(Integer.parseInt(env.get("DB_PORT")));
+    }
+    if (env.get("DB_USERNAME") != null) {
+      options.setUser(env.get("DB_USERNAME"));
+    }
+    if (env.get("DB_PASSWORD") != null) {
+      options.setPassword(env.get("DB_PASSWORD"));
+    }
+    if (env.get("DB_DATABASE") != null) {
+      options.setDatabase(env.get("DB_DATABASE"));
+    }
+    if (env.get("DB_SERVER_PEM") != null) {
+      options.setSslMode(SslMode.VERIFY_FULL)
+          .setPemTrustOptions(new PemTrustOptions()
+              .addCertValue(Buffer.buffer(env.get("DB_SERVER_PEM"))));
+    }
+    return options;
+  }
+
+  /**
+   * Set options for listening connection, overriding environment.
+   * @param options connect options
+   */
+  static synchronized void setConnectOptions(PgConnectOptions options) {
+    connectOptions = options;
+  }
+
+  /**
+   * Start listening for notifications, unless already listening.
+   * @param vertx Vert.x handle
+   * @return async result
+   */
+  static synchronized Future<Void> listen(Vertx vertx) {
+    if (listener == null) {
+      Promise<PgConnection> promise = Promise.promise();
+      Future<PgConnection> future = promise.future();
+      listener = future;
+      PgConnection.connect(vertx, connectOptions)
+          .compose(conn -> {
+            conn.notificationHandler(notification -> {
+              if (CHANNEL.equals(notification.getChannel())) {
+                invalidate(notification.getPayload());
+              }
+            });
+            return conn.query("LISTEN " + CHANNEL).execute()
+                .map(x -> {
+                  conn.closeHandler(y -> {
+                    if (stopped(future)) {
+                      log.warn("match key configuration listener closed; reconnecting");
+                      listen(vertx);
+                    }
+                  });
+                  return conn;
+                })
+                .onFailure(e -> conn.close());
+          })
+          .onComplete(promise);
+      future.onFailure(e -> {
+        log.warn("match key configuration listener failed: {}", e.getMessage());
+        stopped(future);
+      });
+    }
+    return listener.mapEmpty();
+  }
+
+  /**
+   * Register user of the cache, such as a verticle instance.
+   */
+  static synchronized void acquire() {
+    users++;
+  }
+
+  /**
+   * Unregister user of the cache; close the listening connection if it was the last one.
+   * @return async result
+   */
+  static Future<Void> release() {
+    synchronized (MatchKeyConfigCache.class) {
+      if (users > 0) {
+        users--;
+      }
+      if (users > 0) {
+        return Future.succeededFuture();
+      }
+    }
+    return close();
+  }
+
+  /**
+   * Stop listening and close the listening connection.
+   * @return async result
+   */
+  static Future<Void> close() {
+    Future<PgConnection> future;
+    synchronized (MatchKeyConfigCache.class) {
+      future = listener;
+      listener = null;
+      configs.clear();
+    }
+    if (future == null) {
+      return Future.succeededFuture();
+    }
+    return future.compose(PgConnection::close, e -> Future.succeededFuture());
+  }
+
+  private static synchronized boolean stopped(Future<PgConnection> future) {
+    if (listener != future) {
+      return false;
+    }
+    listener = null;
+    configs.clear();
+    return true;
+  }
+
+  private static synchronized boolean isListening() {
+    return listener != null && listener.succeeded();
+  }
+
+  /**
+   * Get configurations for tenant.
+   * @param vertx Vert.x handle
+   * @param tenant tenant
+   * @param loader reads configurations from the database
+   * @return async result with configurations; a copy the caller may modify
+   */
+  static Future<JsonArray> get(Vertx vertx, String tenant,
+      Supplier<Future<JsonArray>> loader) {
+    return listen(vertx)
+        .recover(e -> Future.succeededFuture())
+        .compose(x -> {
+          if (!isListening()) {
+            return loader.get();
+          }
+          Future<JsonArray> future = configs.computeIfAbsent(tenant, t -> loader.get());
+          return future
+              .onFailure(e -> configs.remove(tenant, future))
+              .map(JsonArray::copy);
+        });
+  }
+
+  /**
+   * Drop cached configurations of tenant in this instance.
+   * @param tenant tenant
+   */
+  static void invalidate(String tenant) {
+    configs.remove(tenant);
+  }
+
+  /**
+   * Drop cached configurations of tenant in this and all other instances.
+   * @param conn connection; notification is delivered when its transaction commits
+   * @param tenant tenant
+   * @return async result
+   */
+  static Future<Void> notify(SqlConnection conn, String tenant) {
+    invalidate(tenant);
+    return conn.preparedQuery("SELECT pg_notify($1, $2)")
+        .execute(Tuple.of(CHANNEL, tenant))
+        .mapEmpty();
+  }
+}
@@ -0,0 +1,356 @@
+package org.folio.metastorage.server;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowIterator;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Tuple;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.metastorage.matchkey.MatchKeyMethod;
+import org.folio.okapi.common.GenericCompositeFuture;
+
+/**
+ * Initialize of match keys (populate clusters from all global records) as a job.
+ *
+ * <p>The global record identifier space is split into partitions that are processed in
+ * parallel, each on a connection of its own. A partition is read in identifier order in
+ * batches; a batch is clustered and the checkpoint of the partition is updated in the same
+ * transaction. A job that failed, or whose instance went away, is resumed from the checkpoints
+ * when initialize is requested again for the same match keys.
+ */
+public class MatchKeyInitializeJob {
+  private static final Logger log = LogManager.getLogger(MatchKeyInitializeJob.class);
+
+  /** A job that has not made progress for this long is considered stopped. */
+  static final int STALE_SECONDS = 60;
+
+  static int partitions = 4;
+
+  private static final Map<UUID, Future<JsonObject>> running = new ConcurrentHashMap<>();
+
+  private final Vertx vertx;
+  private final Storage storage;
+  private final Map<String, MatchKeyMethod> matchKeyMethods;
+  private UUID id;
+  private UUID owner;
+
+  private MatchKeyInitializeJob(Vertx vertx, Storage storage,
+      Map<String, MatchKeyMethod> matchKeyMethods) {
+    this.vertx = vertx;
+    this.storage = storage;
+    this.matchKeyMethods = matchKeyMethods;
+  }
+
+  /**
+   * Set number of partitions that new jobs are split into.
+   * @param n number of partitions; also the number of connections used by a job
+   */
+  public static void setPartitions(int n) {
+    if (n < 1) {
+      throw new IllegalArgumentException("initialize partitions must be at least 1");
+    }
+    partitions = n;
+  }
+
+  /**
+   * Get lower bounds of partitions of the UUID space.
+   * @param n number of partitions
+   * @return lower bound for each partition; the upper bound is the next one
+   */
+  static List<UUID> partitionBounds(int n) {
+    List<UUID> bounds = new ArrayList<>(n);
+    BigInteger space = BigInteger.ONE.shiftLeft(64);
+    for (int i = 0; i < n; i++) {
+      long msb = space.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(n)).longValue();
+      bounds.add(new UUID(msb, 0L));
+    }
+    return bounds;
+  }
+
+  /**
+   * Get result of job running in this instance.
+   * @param id job identifier
+   * @return async result with totalRecords; null if not running in this instance
+   */
+  static Future<JsonObject> getResult(UUID id) {
+    return running.get(id);
+  }
+
+  /**
+   * Start, or resume, initialize of match keys.
+   *
+   * <p>If a job for the same match keys is already running, its identifier is returned.
+   * @param vertx Vert.x handle
+   * @param storage storage of tenant
+   * @param matchKeyConfigs configurations of match keys to initialize
+   * @return async result with job identifier
+   */
+  static Future<UUID> start(Vertx vertx, Storage storage, JsonArray matchKeyConfigs) {
+    return storage.getMatchKeyMethods(vertx, matchKeyConfigs, true)
+        .compose(matchKeyMethods -> {
+          MatchKeyInitializeJob job = new MatchKeyInitializeJob(vertx, storage, matchKeyMethods);
+          return storage.getPool().withTransaction(job::findOrCreate).map(x -> {
+            if (job.owner != null) {
+              running.put(job.id, job.run().onComplete(y -> running.remove(job.id)));
+            }
+            return job.id;
+          });
+        });
+  }
+
+  static boolean isStale(LocalDateTime lastActive, LocalDateTime now) {
+    return lastActive.plusSeconds(STALE_SECONDS).isBefore(now);
+  }
+
+  /**
+   * Find unfinished job for the match keys; take it over if stopped. Create new job if none.
+   *
+   * <p>Sets owner if this instance is to run the job.
+   */
+  private Future<Void> findOrCreate(SqlConnection conn) {
+    String[] ids = matchKeyMethods.keySet().toArray(new String[0]);
+    Arrays.sort(ids);
+    LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+    UUID newOwner = UUID.randomUUID();
+    // serialize starting of jobs for the same match keys
+    return conn.preparedQuery("SELECT pg_advisory_xact_lock($1)")
+        .execute(Tuple.of((long) (storage.tenant + "/" + String.join(",", ids)).hashCode()))
+        .compose(x -> conn.preparedQuery("SELECT id, last_active, error FROM "
+                + storage.initializeJobTable
+                + " WHERE match_key_config_ids = $1 AND finished IS NULL")
+            .execute(Tuple.of(ids)))
+        .compose(rowSet -> {
+          RowIterator<Row> iterator = rowSet.iterator();
+          if (iterator.hasNext()) {
+            Row row = iterator.next();
+            id = row.getUUID("id");
+            if (row.getString("error") == null
+                && !isStale(row.getLocalDateTime("last_active"), now)) {
+              return Future.succeededFuture();
+            }
+            log.info("resuming initialize job {}", id);
+            owner = newOwner;
+            return conn.preparedQuery("UPDATE " + storage.initializeJobTable
+                    + " SET owner = $2, run_started = $3, last_active = $3, error = NULL,"
+                    + " run_records = (SELECT coalesce(sum(records), 0)::bigint FROM "
+                    + storage.initializePartitionTable + " WHERE job_id = $1)"
+                    + " WHERE id = $1")
+                .execute(Tuple.of(id, owner, now))
+                .mapEmpty();
+          }
+          id = UUID.randomUUID();
+          owner = newOwner;
+          List<Tuple> tuples = new ArrayList<>();
+          List<UUID> bounds = partitionBounds(partitions);
+          for (int i = 0; i < bounds.size(); i++) {
+            tuples.add(Tuple.of(id, i, bounds.get(i),
+                i + 1 < bounds.size() ? bounds.get(i + 1) : null));
+          }
+          return conn.preparedQuery("DELETE FROM " + storage.initializeJobTable
+                  + " WHERE match_key_config_ids = $1")
+              .execute(Tuple.of(ids))
+              // counting a large table would cost a scan while holding the job lock
+              .compose(x -> ResultCount.estimate(conn,
+                  List.of("SELECT id FROM " + storage.globalRecordTable), List.of(Tuple.tuple()),
+                  Storage.countEstimateThreshold,
+                  "SELECT count(*) FROM " + storage.globalRecordTable, Tuple.tuple()))
+              .compose(count -> conn.preparedQuery("INSERT INTO " + storage.initializeJobTable
+                      + " (id, match_key_config_ids, owner, started, run_started, run_records,"
+                      + " estimated_records, last_active) VALUES ($1, $2, $3, $4, $4, 0, $5, $4)")
+                  .execute(Tuple.of(id, ids, owner, now, (long) count.get(0))))
+              .compose(x -> conn.preparedQuery("INSERT INTO " + storage.initializePartitionTable
+                      + " (job_id, part, lower_id, upper_id) VALUES ($1, $2, $3, $4)")
+                  .executeBatch(tuples))
+              .mapEmpty();
+        });
+  }
+
+  /**
+   * Run unfinished partitions of job in parallel.
+   * @return async result with totalRecords for the whole job
+   */
+  private Future<JsonObject> run() {
+    log.info("initialize job {} started", id);
+    return storage.getPool().preparedQuery("SELECT part, lower_id, upper_id, last_id FROM "
+            + storage.initializePartitionTable + " WHERE job_id = $1 AND NOT done")
+        .execute(Tuple.of(id))
+        .compose(rowSet -> {
+          List<Future<Void>> futures = new ArrayList<>();
+          rowSet.forEach(row -> futures.add(runPartition(row.getInteger("part"),
+              row.getUUID("lower_id"), row.getUUID("upper_id"), row.getUUID("last_id"))));
+          return GenericCompositeFuture.all(futures);
+        })
+        .compose(x -> storage.getPool().preparedQuery("UPDATE " + storage.initializeJobTable
+                + " SET finished = $3, last_active = $3 WHERE id = $1 AND owner = $2"
+                + " RETURNING (SELECT coalesce(sum(records), 0)::bigint FROM "
+                + storage.initializePartitionTable + " WHERE job_id = $1) AS records")
+            .execute(Tuple.of(id, owner, LocalDateTime.now(ZoneOffset.UTC))))
+        .compose(rowSet -> {
+          RowIterator<Row> iterator = rowSet.iterator();
+          if (!iterator.hasNext()) {
+            return Future.failedFuture("Initialize job " + id + " was taken over or deleted");
+          }
+          long records = iterator.next().getLong("records");
+          log.info("initialize job {} completed with {} records", id, records);
+          return Future.succeededFuture(new JsonObject().put("totalRecords", records));
+        })
+        .onFailure(e -> {
+          log.error("initialize job {} failed: {}", id, e.getMessage(), e);
+          storage.getPool().preparedQuery("UPDATE " + storage.initializeJobTable
+                  + " SET error = $3 WHERE id = $1 AND owner = $2")
+              .execute(Tuple.of(id, owner, e.getMessage() == null ? e.toString() : e.getMessage()))
+              .onFailure(e1 -> log.error(e1.getMessage(), e1));
+        });
+  }
+
+  private Future<Void> runPartition(int part, UUID lower, UUID upper, UUID last) {
+    // partitions run in parallel and may deadlock on clusters like parallel ingest
+    return storage.withIngestTransaction(conn -> runBatch(conn, part, lower, upper, last))
+        .compose(next -> next == null
+            ? Future.succeededFuture()
+            : runPartition(part, lower, upper, next));
+  }
+
+  /**
+   * Cluster next batch of partition and update its checkpoint.
+   * @return async result with checkpoint (last identifier of batch); null when partition is done
+   */
+  private Future<UUID> runBatch(SqlConnection conn, int part, UUID lower, UUID upper,
+      UUID last) {
+    String sql = "SELECT id, payload FROM " + storage.globalRecordTable
+        + " WHERE id " + (last == null ? ">=" : ">") + " $1"
+        + (upper == null ? "" : " AND id < $2")
+        + " ORDER BY id LIMIT " + Storage.ingestBatchSize;
+    Tuple tuple = upper == null
+        ? Tuple.of(last == null ? lower : last)
+        : Tuple.of(last == null ? lower : last, upper);
+    LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+    return conn.preparedQuery(sql).execute(tuple)
+        .compose(rowSet -> {
+          Map<UUID, JsonObject> payloads = new LinkedHashMap<>();
+          rowSet.forEach(row -> payloads.put(row.getUUID("id"), row.getJsonObject("payload")));
+          if (payloads.isEmpty()) {
+            return conn.preparedQuery("UPDATE " + storage.initializePartitionTable
+                    + " SET done = TRUE WHERE job_id = $1 AND part = $2")
+                .execute(Tuple.of(id, part))
+                .map((UUID) null);
+          }
+          UUID checkpoint = new ArrayList<>(payloads.keySet()).get(payloads.size() - 1);
+          return storage.updateClusters(vertx, conn, payloads, matchKeyMethods, true)
+              .compose(x -> conn.preparedQuery("UPDATE " + storage.initializePartitionTable
+                      + " SET last_id = $3, records = records + $4"
+                      + " WHERE job_id = $1 AND part = $2")
+                  .execute(Tuple.of(id, part, checkpoint, payloads.size())))
+              .map(checkpoint);
+        })
+        .compose(checkpoint -> conn.preparedQuery("UPDATE " + storage.initializeJobTable
+                + " SET last_active = $3 WHERE id = $1 AND owner = $2")
+            .execute(Tuple.of(id, owner, now))
+            .compose(rowSet -> rowSet.rowCount() == 0
+                ? Future.failedFuture("Initialize job " + id + " was taken over or deleted")
+                : Future.succeededFuture(checkpoint)));
+  }
+
+  private static Future<JsonObject> selectStatus(Storage storage, String where, Tuple tuple) {
+    return storage.getPool().preparedQuery("SELECT j.*,"
+            + " (SELECT coalesce(sum(records), 0)::bigint FROM "
+            + storage.initializePartitionTable + " WHERE job_id = j.id) AS records"
+            + " FROM " + storage.initializeJobTable + " AS j"
+            + " WHERE " + where + " ORDER BY j.started DESC LIMIT 1")
+        .execute(tuple)
+        .map(rowSet -> {
+          RowIterator<Row> iterator = rowSet.iterator();
+          if (!iterator.hasNext()) {
+            return null;
+          }
+          return statusJson(iterator.next(), LocalDateTime.now(ZoneOffset.UTC));
+        });
+  }
+
+  /**
+   * Get status of latest initialize job of match key.
+   * @param storage storage of tenant
+   * @param matchKeyConfigId match key identifier
+   * @return async result with status; null if match key was never initialized
+   */
+  static Future<JsonObject> getStatus(Storage storage, String matchKeyConfigId) {
+    return selectStatus(storage, "$1 = ANY(j.match_key_config_ids)",
+        Tuple.of(matchKeyConfigId));
+  }
+
+  /**
+   * Get status of initialize job.
+   * @param storage storage of tenant
+   * @param jobId job identifier
+   * @return async result with status; null if job is not found
+   */
+  static Future<JsonObject> getJobStatus(Storage storage, UUID jobId) {
+    return selectStatus(storage, "j.id = $1", Tuple.of(jobId));
+  }
+
+  private static String formatTimestamp(LocalDateTime timestamp) {
+    return DateTimeFormatter.ISO_INSTANT.format(timestamp.toInstant(ZoneOffset.UTC));
+  }
+
+  static JsonObject statusJson(Row row, LocalDateTime now) {
+    LocalDateTime finished = row.getLocalDateTime("finished");
+    String error = row.getString("error");
+    LocalDateTime lastActive = row.getLocalDateTime("last_active");
+    String status;
+    if (finished != null) {
+      status = "completed";
+    } else if (error != null) {
+      status = "failed";
+    } else if (isStale(lastActive, now)) {
+      status = "stopped";
+    } else {
+      status = "running";
+    }
+    long records = row.getLong("records");
+    Long estimated = row.getLong("estimated_records");
+    JsonObject json = new JsonObject()
+        .put("id", row.getUUID("id").toString())
+        .put("matchKeyIds", new JsonArray(Arrays.asList(
+            (Object[]) row.getArrayOfStrings("match_key_config_ids"))))
+        .put("status", status)
+        .put("started", formatTimestamp(row.getLocalDateTime("started")))
+        .put("lastActive", formatTimestamp(lastActive))
+        .put("totalRecords", records)
+        .put("estimatedRecords", estimated);
+    if (finished != null) {
+      json.put("finished", formatTimestamp(finished));
+    }
+    if (error != null) {
+      json.put("error", error);
+    }
+    if ("running".equals(status) || "completed".equals(status)) {
+      long millis = Duration.between(row.getLocalDateTime("run_started"),
+          finished != null ? finished : now).toMillis();
+      if (millis > 0) {
+        double rate = (records - row.getLong("run_records")) * 1000.0 / millis;
+        json.put("recordsPerSecond", rate);
+        if ("running".equals(status) && rate > 0.0 && estimated != null) {
+          json.put("estimatedSecondsRemaining",
+              (long) (Math.max(0L, estimated - records) / rate));
+        }
+      }
+    }
+    return json;
+  }
+}
@@ -0,0 +1,232 @@
+package org.folio.metastorage.server;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Tuple;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.metastorage.matchkey.MatchKeyMethod;
+import org.folio.metastorage.matchkey.MatchKeyPayload;
+
+/**
+ * Rebuild of clusters for match keys from scratch.
+ *
+ * <p>All global records are read once and their match values are added to a
+ * {@link ClusterUnionFind} for each match key, sized from the estimated number of records.
+ * Clusters are computed in memory, then the existing clusters of the match keys are
+ * replaced by the new ones, written in chunks with set-based inserts. A cluster that is
+ * unchanged keeps its identifier and datestamp, so it is not harvested again. Unlike the
+ * initialize job, no clusters are looked up or merged in the database while reading, but
+ * the whole rebuild is one transaction and can not be resumed.
+ * The cluster value table is locked for the duration, so ingest waits for the rebuild.
+ */
+public class MatchKeyRebuild {
+  private static final Logger log = LogManager.getLogger(MatchKeyRebuild.class);
+
+  /** Number of rows in each insert when writing clusters. */
+  static final int WRITE_CHUNK = 10000;
+
+  /** Number of global records read at a time. */
+  static final int READ_CHUNK = 1000;
+
+  private final Vertx vertx;
+  private final Storage storage;
+  private final Map<String, MatchKeyMethod> matchKeyMethods;
+  private final Map<String, ClusterUnionFind> builders = new LinkedHashMap<>();
+
+  private MatchKeyRebuild(Vertx vertx, Storage storage,
+      Map<String, MatchKeyMethod> matchKeyMethods, int expectedRecords) {
+    this.vertx = vertx;
+    this.storage = storage;
+    this.matchKeyMethods = matchKeyMethods;
+    matchKeyMethods.keySet().forEach(id ->
+        builders.put(id, new ClusterUnionFind(expectedRecords)));
+  }
+
+  /**
+   * Rebuild clusters for match keys.
+   * @param vertx Vert.x handle
+   * @param storage storage of tenant
+   * @param matchKeyConfigs configurations of match keys to rebuild
+   * @return async result with totalRecords and number of clusters for each match key
+   */
+  static Future<JsonObject> run(Vertx vertx, Storage storage, JsonArray matchKeyConfigs) {
+    return storage.getMatchKeyMethods(vertx, matchKeyConfigs, true)
+        .compose(matchKeyMethods -> storage.getPool().withTransaction(conn ->
+            ResultCount.estimate(conn,
+                    List.of("SELECT id FROM " + storage.globalRecordTable),
+                    List.of(Tuple.tuple()), Storage.countEstimateThreshold,
+                    "SELECT count(*) FROM " + storage.globalRecordTable, Tuple.tuple())
+                .compose(count -> new MatchKeyRebuild(vertx, storage, matchKeyMethods,
+                    count.get(0)).run(conn))));
+  }
+
+  private Future<JsonObject> run(SqlConnection conn) {
+    log.info("rebuild of {} started", builders.keySet());
+    return storage.lockClusterValues(conn)
+        .compose(x -> read(conn, null))
+        .compose(x -> {
+          Future<Void> future = Future.succeededFuture();
+          for (String matchKeyConfigId : builders.keySet()) {
+            future = future.compose(y -> readValues(conn, matchKeyConfigId, null));
+          }
+          return future;
+        })
+        .compose(x -> vertx.executeBlocking(promise -> {
+          builders.values().forEach(ClusterUnionFind::build);
+          promise.complete();
+        }))
+        .compose(x -> {
+          Future<Void> future = Future.succeededFuture();
+          for (Map.Entry<String, ClusterUnionFind> entry : builders.entrySet()) {
+            future = future.compose(y -> write(conn, entry.getKey(), entry.getValue()));
+          }
+          return future;
+        })
+        .map(x -> {
+          JsonObject clusters = new JsonObject();
+          int totalRecords = 0;
+          for (Map.Entry<String, ClusterUnionFind> entry : builders.entrySet()) {
+            clusters.put(entry.getKey(), entry.getValue().getClusterCount());
+            totalRecords = entry.getValue().getRecordCount();
+          }
+          log.info("rebuild of {} completed with {} records", builders.keySet(), totalRecords);
+          return new JsonObject()
+              .put("totalRecords", totalRecords)
+              .put("clusters", clusters);
+        });
+  }
+
+  /**
+   * Read global records after last, compute their match values and add to builders.
+   */
+  private Future<Void> read(SqlConnection conn, UUID last) {
+    String sql = "SELECT id, payload,"
+        + " (SELECT jsonb_object_agg(r.match_key_config_id, r.cluster_id)"
+        + " FROM " + storage.clusterRecordTable + " AS r WHERE r.record_id = g.id) AS clusters"
+        + " FROM " + storage.globalRecordTable + " AS g"
+        + (last == null ? "" : " WHERE id > $1")
+        + " ORDER BY id LIMIT " + READ_CHUNK;
+    return conn.preparedQuery(sql).execute(last == null ? Tuple.tuple() : Tuple.of(last))
+        .compose(rowSet -> {
+          if (rowSet.size() == 0) {
+            return Future.succeededFuture();
+          }
+          Map<UUID, JsonObject> payloads = new LinkedHashMap<>();
+          Map<UUID, JsonObject> clusters = new HashMap<>();
+          for (Row row : rowSet) {
+            payloads.put(row.getUUID("id"), row.getJsonObject("payload"));
+            JsonObject recordClusters = row.getJsonObject("clusters");
+            if (recordClusters != null) {
+              clusters.put(row.getUUID("id"), recordClusters);
+            }
+          }
+          // chunks are computed one at a time, so builders are not used concurrently
+          return vertx.<UUID>executeBlocking(promise -> {
+            UUID id = null;
+            for (Map.Entry<UUID, JsonObject> payload : payloads.entrySet()) {
+              id = payload.getKey();
+              MatchKeyPayload matchKeyPayload = new MatchKeyPayload(payload.getValue());
+              JsonObject recordClusters = clusters.getOrDefault(id, new JsonObject());
+              for (Map.Entry<String, MatchKeyMethod> method : matchKeyMethods.entrySet()) {
+                Set<String> keys = new HashSet<>();
+                method.getValue().getKeys(matchKeyPayload, keys);
+                String clusterId = recordClusters.getString(method.getKey());
+                builders.get(method.getKey()).addRecord(id,
+                    clusterId == null ? null : UUID.fromString(clusterId),
+                    Storage.truncateKeys(keys));
+              }
+            }
+            promise.complete(id);
+          }).compose(next -> read(conn, next));
+        });
+  }
+
+  /**
+   * Read existing match values of match key after last and add to its builder.
+   */
+  private Future<Void> readValues(SqlConnection conn, String matchKeyConfigId, String last) {
+    String sql = "SELECT match_value, cluster_id FROM " + storage.clusterValueTable
+        + " WHERE match_key_config_id = $1"
+        + (last == null ? "" : " AND match_value > $2")
+        + " ORDER BY match_value LIMIT " + READ_CHUNK;
+    return conn.preparedQuery(sql)
+        .execute(last == null ? Tuple.of(matchKeyConfigId) : Tuple.of(matchKeyConfigId, last))
+        .compose(rowSet -> {
+          if (rowSet.size() == 0) {
+            return Future.succeededFuture();
+          }
+          ClusterUnionFind builder = builders.get(matchKeyConfigId);
+          String value = null;
+          for (Row row : rowSet) {
+            value = row.getString("match_value");
+            builder.addExistingValue(value, row.getUUID("cluster_id"));
+          }
+          return readValues(conn, matchKeyConfigId, value);
+        });
+  }
+
+  /**
+   * Replace clusters of match key with those of builder.
+   *
+   * <p>Entries of existing clusters that are kept are not replaced, so they keep their
+   * datestamp; entries of other existing clusters are deleted at the end.
+   */
+  private Future<Void> write(SqlConnection conn, String matchKeyConfigId,
+      ClusterUnionFind builder) {
+    Tuple tuple = Tuple.of(matchKeyConfigId);
+    Future<Void> future = conn.preparedQuery("DELETE FROM " + storage.clusterRecordTable
+            + " WHERE match_key_config_id = $1").execute(tuple)
+        .compose(x -> conn.preparedQuery("DELETE FROM " + storage.clusterValueTable
+            + " WHERE match_key_config_id = $1").execute(tuple))
+        .mapEmpty();
+    for (int i = 0; i < builder.getClusterCount(); i += WRITE_CHUNK) {
+      int start = i;
+      future = future.compose(x -> {
+        Set<UUID> clusters = new HashSet<>();
+        for (int c = start; c < Math.min(start + WRITE_CHUNK, builder.getClusterCount()); c++) {
+          if (!builder.isExistingCluster(c)) {
+            clusters.add(builder.getClusterId(c));
+          }
+        }
+        return storage.createMetaEntries(conn, clusters, matchKeyConfigId);
+      });
+    }
+    for (int i = 0; i < builder.getValueCount(); i += WRITE_CHUNK) {
+      int start = i;
+      future = future.compose(x -> {
+        Map<String, UUID> values = new HashMap<>();
+        for (int v = start; v < Math.min(start + WRITE_CHUNK, builder.getValueCount()); v++) {
+          values.put(builder.getValue(v), builder.getValueClusterId(v));
+        }
+        return storage.addValuesToClusters(conn, matchKeyConfigId, values);
+      });
+    }
+    for (int i = 0; i < builder.getRecordCount(); i += WRITE_CHUNK) {
+      int start = i;
+      future = future.compose(x -> {
+        Map<UUID, UUID> recordClusters = new HashMap<>();
+        for (int r = start; r < Math.min(start + WRITE_CHUNK, builder.getRecordCount()); r++) {
+          recordClusters.put(builder.getRecordId(r), builder.getRecordClusterId(r));
+        }
+        return storage.upsertClusterRecords(conn, matchKeyConfigId, recordClusters);
+      });
+    }
+    return future.compose(x -> conn.preparedQuery("DELETE FROM " + storage.clusterMetaTable
+            + " AS m WHERE match_key_config_id = $1 AND NOT EXISTS (SELECT 1 FROM "
+            + storage.clusterRecordTable + " AS r WHERE r.cluster_id = m.cluster_id)")
+        .execute(tuple)
+        .mapEmpty());
+  }
+}
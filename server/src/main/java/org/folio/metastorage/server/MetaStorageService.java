@@ -9,8 +9,14 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.openapi.RouterBuilder;
+import io.vertx.ext.web.validation.RequestParameter;
 import io.vertx.ext.web.validation.RequestParameters;
 import io.vertx.ext.web.validation.ValidationHandler;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.function.Function;
 import org.apache.logging.log4j.LogManager;
@@ -19,6 +25,7 @@ import org.folio.metastorage.matchkey.MatchKeyMethodFactory;
 import org.folio.metastorage.module.ModuleCache;
 import org.folio.metastorage.server.entity.CodeModuleEntity;
 import org.folio.metastorage.util.LargeJsonReadStream;
+import org.folio.metastorage.util.SourceId;
 import org.folio.okapi.common.HttpResponse;
 import org.folio.tlib.RouterCreator;
 import org.folio.tlib.TenantInitHooks;
@@ -42,7 +49,11 @@ public class MetaStorageService implements RouterCreator, TenantInitHooks {
       Storage storage = new Storage(ctx);
       HttpServerRequest request = ctx.request();
       request.pause();
-      return storage.updateGlobalRecords(ctx.vertx(), new LargeJsonReadStream(request))
+      LargeJsonReadStream records = new LargeJsonReadStream(request);
+      Future<Void> future = "true".equals(request.getParam("bulk"))
+          ? storage.bulkLoadGlobalRecords(ctx.vertx(), records)
+          : storage.updateGlobalRecords(ctx.vertx(), records);
+      return future
           .onSuccess(res -> {
             JsonArray ar = new JsonArray();
             // global ids and match keys here ...
@@ -53,6 +64,72 @@ public class MetaStorageService implements RouterCreator, TenantInitHooks {
     }
   }
 
+  void ingestJobNotFound(RoutingContext ctx, String id) {
+    HttpResponse.responseError(ctx, 404, "Ingest job " + id + " not found");
+  }
+
+  Future<Void> postIngestJob(RoutingContext ctx) {
+    Storage storage = new Storage(ctx);
+    JsonObject request = ctx.getBodyAsJson();
+    SourceId sourceId = new SourceId(request.getString("sourceId"));
+    int sourceVersion = request.getInteger("sourceVersion", 1);
+    Integer autoRollBackTimeout = request.getInteger("autoRollBackTimeout");
+    return storage.createIngestJob(sourceId, sourceVersion, autoRollBackTimeout)
+        .onSuccess(job ->
+            HttpResponse.responseJson(ctx, 201)
+                .putHeader("Location", ctx.request().absoluteURI() + "/" + job.getString("id"))
+                .end(job.encode()))
+        .mapEmpty();
+  }
+
+  Future<Void> ingestJobRecord(RoutingContext ctx) {
+    RequestParameters params = ctx.get(ValidationHandler.REQUEST_CONTEXT_KEY);
+    String id = Util.getParameterString(params.pathParameter("id"));
+    Storage storage = new Storage(ctx);
+    return storage.addIngestJobRecords(UUID.fromString(id), ctx.getBodyAsJsonArray())
+        .onSuccess(res -> {
+          if (Boolean.FALSE.equals(res)) {
+            ingestJobNotFound(ctx, id);
+            return;
+          }
+          // global identifiers are not known until job is committed
+          HttpResponse.responseJson(ctx, 200).end(new JsonArray().encode());
+        })
+        .mapEmpty();
+  }
+
+  Future<Void> ingestJobInfo(RoutingContext ctx) {
+    RequestParameters params = ctx.get(ValidationHandler.REQUEST_CONTEXT_KEY);
+    String id = Util.getParameterString(params.pathParameter("id"));
+    Storage storage = new Storage(ctx);
+    return storage.getIngestJob(UUID.fromString(id))
+        .onSuccess(res -> {
+          if (res == null) {
+            ingestJobNotFound(ctx, id);
+            return;
+          }
+          HttpResponse.responseJson(ctx, 200).end(res.encode());
+        })
+        .mapEmpty();
+  }
+
+  Future<Void> ingestJobFinish(RoutingContext ctx) {
+    RequestParameters params = ctx.get(ValidationHandler.REQUEST_CONTEXT_KEY);
+    String id = Util.getParameterString(params.pathParameter("id"));
+    RequestParameter commit = params.queryParameter("commit");
+    Storage storage = new Storage(ctx);
+    return storage.finishIngestJob(ctx.vertx(), UUID.fromString(id),
+            commit != null && commit.getBoolean())
+        .onSuccess(res -> {
+          if (Boolean.FALSE.equals(res)) {
+            ingestJobNotFound(ctx, id);
+            return;
+          }
+          ctx.response().setStatusCode(204).end();
+        })
+        .mapEmpty();
+  }
+
   Future<Void> reloadCodeModule(RoutingContext ctx) {
     RequestParameters params = ctx.get(ValidationHandler.REQUEST_CONTEXT_KEY);
     String id = Util.getParameterString(params.pathParameter("id"));
@@ -142,7 +219,7 @@ public class MetaStorageService implements RouterCreator, TenantInitHooks {
             HttpResponse.responseError(ctx, 404, id);
             return;
           }
-          HttpResponse.responseJson(ctx, 200).end(res.encode());
+          HttpResponse.responseJson(ctx, 200).end(res);
         })
         .mapEmpty();
   }
@@ -276,14 +353,69 @@ public class MetaStorageService implements RouterCreator, TenantInitHooks {
         pgCqlQuery.getOrderByClause());
   }
 
+  Future<Void> matchKeysNotFound(RoutingContext ctx, Storage storage, Collection<String> ids) {
+    return storage.getAvailableMatchConfigs().onSuccess(matchKeyConfigs -> {
+      Set<String> found = new HashSet<>();
+      matchKeyConfigs.forEach(o -> found.add(((JsonObject) o).getString("id")));
+      matchKeyNotFound(ctx, ids.stream().filter(id -> !found.contains(id))
+          .findFirst().orElse(String.join(", ", ids)));
+    }).mapEmpty();
+  }
+
+  Future<Void> initializeMatchKeys(RoutingContext ctx, Collection<String> ids) {
+    RequestParameters params = ctx.get(ValidationHandler.REQUEST_CONTEXT_KEY);
+    RequestParameter asyncParameter = params.queryParameter("async");
+    RequestParameter rebuildParameter = params.queryParameter("rebuild");
+    boolean async = asyncParameter != null && asyncParameter.getBoolean();
+    boolean rebuild = rebuildParameter != null && rebuildParameter.getBoolean();
+    Storage storage = new Storage(ctx);
+    if (async) {
+      if (rebuild) {
+        HttpResponse.responseError(ctx, 400, "async can not be combined with rebuild");
+        return Future.succeededFuture();
+      }
+      return storage.startInitializeMatchKeys(ctx.vertx(), ids)
+          .compose(jobId -> {
+            if (jobId == null) {
+              return matchKeysNotFound(ctx, storage, ids);
+            }
+            return storage.getInitializeJobStatus(jobId)
+                .onSuccess(res -> HttpResponse.responseJson(ctx, 202).end(res.encode()))
+                .mapEmpty();
+          });
+    }
+    Future<JsonObject> result = rebuild
+        ? storage.rebuildMatchKeys(ctx.vertx(), ids)
+        : storage.initializeMatchKeys(ctx.vertx(), ids);
+    return result.compose(res -> {
+      if (res == null) {
+        return matchKeysNotFound(ctx, storage, ids);
+      }
+      HttpResponse.responseJson(ctx, 200).end(res.encode());
+      return Future.succeededFuture();
+    });
+  }
+
   Future<Void> initializeMatchKey(RoutingContext ctx) {
+    RequestParameters params = ctx.get(ValidationHandler.REQUEST_CONTEXT_KEY);
+    String id = Util.getParameterString(params.pathParameter("id"));
+    return initializeMatchKeys(ctx, List.of(id));
+  }
+
+  Future<Void> initializeMatchKeysMany(RoutingContext ctx) {
+    Set<String> ids = new LinkedHashSet<>();
+    ctx.getBodyAsJson().getJsonArray("matchKeyIds").forEach(id -> ids.add((String) id));
+    return initializeMatchKeys(ctx, ids);
+  }
+
+  Future<Void> initializeMatchKeyStatus(RoutingContext ctx) {
     RequestParameters params = ctx.get(ValidationHandler.REQUEST_CONTEXT_KEY);
     String id = Util.getParameterString(params.pathParameter("id"));
     Storage storage = new Storage(ctx);
-    return storage.initializeMatchKey(ctx.vertx(), id)
+    return storage.getInitializeMatchKeyStatus(id)
         .onSuccess(res -> {
           if (res == null) {
-            matchKeyNotFound(ctx, id);
+            HttpResponse.responseError(ctx, 404, "No initialize of MatchKey " + id);
             return;
           }
           HttpResponse.responseJson(ctx, 200).end(res.encode());
@@ -453,6 +585,10 @@ public class MetaStorageService implements RouterCreator, TenantInitHooks {
     OaiPmhClientService oaiPmhClient = new OaiPmhClientService(vertx);
     return RouterBuilder.create(vertx, "openapi/meta-storage-1.0.yaml")
         .map(routerBuilder -> {
+          add(routerBuilder, "postIngestJob", this::postIngestJob);
+          add(routerBuilder, "ingestJobRecord", this::ingestJobRecord);
+          add(routerBuilder, "ingestJobInfo", this::ingestJobInfo);
+          add(routerBuilder, "ingestJobFinish", this::ingestJobFinish);
           add(routerBuilder, "getGlobalRecords", this::getGlobalRecords);
           add(routerBuilder, "deleteGlobalRecords", this::deleteGlobalRecords);
           add(routerBuilder, "getGlobalRecord", this::getGlobalRecord);
@@ -462,6 +598,8 @@ public class MetaStorageService implements RouterCreator, TenantInitHooks {
           add(routerBuilder, "deleteConfigMatchKey", this::deleteConfigMatchKey);
           add(routerBuilder, "getConfigMatchKeys", this::getConfigMatchKeys);
           add(routerBuilder, "initializeMatchKey", this::initializeMatchKey);
+          add(routerBuilder, "initializeMatchKeyStatus", this::initializeMatchKeyStatus);
+          add(routerBuilder, "initializeMatchKeys", this::initializeMatchKeysMany);
           add(routerBuilder, "statsMatchKey", this::statsMatchKey);
           add(routerBuilder, "getClusters", this::getClusters);
           add(routerBuilder, "getCluster", this::getCluster);
@@ -36,6 +36,7 @@ import org.folio.metastorage.oai.OaiParserStream;
 import org.folio.metastorage.oai.OaiRecord;
 import org.folio.metastorage.server.entity.ClusterBuilder;
 import org.folio.metastorage.server.entity.OaiPmhStatus;
+import org.folio.metastorage.util.AdaptiveConcurrency;
 import org.folio.metastorage.util.SourceId;
 import org.folio.metastorage.util.XmlMetadataParserMarcInJson;
 import org.folio.metastorage.util.XmlMetadataStreamParser;
@@ -601,18 +602,19 @@ public class OaiPmhClientService {
                 config.put("from", datestamp);
               }
               queue.incrementAndGet();
-              // is queue full: 4 because that's the Postgres client pool size
-              if (Boolean.FALSE.equals(ended.get()) && queue.get() >= 4) {
+              // limit shared with other ingest operations
+              AdaptiveConcurrency concurrency = Storage.getIngestConcurrency();
+              long start = System.nanoTime();
+              if (concurrency.begin() && Boolean.FALSE.equals(ended.get())) {
                 xmlParser.pause();
+                concurrency.whenAvailable(xmlParser::resume);
               }
               ingestRecord(storage, oaiRecord, sourceId, sourceVersion,
                   matchKeyConfigs)
+                  .onComplete(x -> concurrency.end(System.nanoTime() - start, x.succeeded()))
                   .map(upd -> {
                     queue.decrementAndGet();
-                    // drain ?
-                    if (queue.get() < 2) {
-                      xmlParser.resume();
-                    }
+                    job.setIngestConcurrency(concurrency.getLimit());
                     job.setTotalRecords(job.getTotalRecords() + 1);
                     job.setLastTotalRecords(job.getLastTotalRecords() + 1);
                     if (upd == null) {
@@ -626,8 +628,7 @@ public class OaiPmhClientService {
                       endResponse(resumptionToken, promise, job);
                     }
                     return null;
-                  })
-                  .onFailure(x -> xmlParser.resume());
+                  });
             },
             metadataParser);
     oaiParserStream.exceptionHandler(promise::fail);
@@ -0,0 +1,135 @@
+package org.folio.metastorage.server;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Tuple;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of rendered OAI-PMH metadata of clusters.
+ *
+ * <p>An entry is for a cluster at a datestamp rendered by a transformer. The datestamp of
+ * a cluster is updated whenever the cluster changes, so an entry is used only while the
+ * datestamp and transformer are the same. Entries are added as records are rendered
+ * and are compressed with gzip. Metadata is passed compressed, so that callers can
+ * compress and decompress in worker threads.
+ */
+class OaiRecordCache {
+
+  private final Storage storage;
+  private final String transformer;
+
+  /**
+   * Create cache for transformer.
+   * @param storage storage of tenant
+   * @param transformer identifies the transformer and its configuration
+   */
+  OaiRecordCache(Storage storage, String transformer) {
+    this.storage = storage;
+    this.transformer = transformer;
+  }
+
+  /**
+   * Get cached metadata of clusters.
+   * @param conn connection
+   * @param items clusters
+   * @return async result with compressed metadata for each cluster that is cached
+   */
+  Future<Map<UUID, byte[]>> get(SqlConnection conn, List<ClusterRecordItem> items) {
+    List<UUID> clusterIds = new ArrayList<>(items.size());
+    List<LocalDateTime> datestamps = new ArrayList<>(items.size());
+    for (ClusterRecordItem cr : items) {
+      if (cr.datestamp != null) {
+        clusterIds.add(cr.clusterId);
+        datestamps.add(cr.datestamp);
+      }
+    }
+    if (clusterIds.isEmpty()) {
+      return Future.succeededFuture(Map.of());
+    }
+    return conn.preparedQuery("SELECT c.cluster_id, c.metadata FROM "
+            + storage.getOaiRecordCacheTable() + " AS c,"
+            + " unnest($1::uuid[], $2::timestamp[]) AS k(cluster_id, datestamp)"
+            + " WHERE c.cluster_id = k.cluster_id AND c.datestamp = k.datestamp"
+            + " AND c.transformer = $3")
+        .execute(Tuple.of(clusterIds.toArray(new UUID[0]),
+            datestamps.toArray(new LocalDateTime[0]), transformer))
+        .map(rowSet -> {
+          Map<UUID, byte[]> metadata = new HashMap<>();
+          rowSet.forEach(row -> metadata.put(row.getUUID("cluster_id"),
+              row.getBuffer("metadata").getBytes()));
+          return metadata;
+        });
+  }
+
+  /**
+   * Add rendered metadata of clusters.
+   *
+   * <p>Entries are written outside the transaction of the response, so that concurrent
+   * responses with the same clusters do not wait for each other. An entry is not replaced
+   * by one rendered from an older datestamp of the cluster.
+   * @param rendered compressed metadata for each cluster
+   * @return async result
+   */
+  Future<Void> put(Map<ClusterRecordItem, byte[]> rendered) {
+    List<UUID> clusterIds = new ArrayList<>(rendered.size());
+    List<LocalDateTime> datestamps = new ArrayList<>(rendered.size());
+    List<Buffer> metadata = new ArrayList<>(rendered.size());
+    rendered.forEach((cr, value) -> {
+      if (cr.datestamp != null) {
+        clusterIds.add(cr.clusterId);
+        datestamps.add(cr.datestamp);
+        metadata.add(Buffer.buffer(value));
+      }
+    });
+    if (clusterIds.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    String table = storage.getOaiRecordCacheTable();
+    return storage.getPool().preparedQuery("INSERT INTO " + table
+            + " (cluster_id, datestamp, transformer, metadata)"
+            + " SELECT k.cluster_id, k.datestamp, $4, k.metadata"
+            + " FROM unnest($1::uuid[], $2::timestamp[], $3::bytea[])"
+            + " AS k(cluster_id, datestamp, metadata)"
+            + " WHERE EXISTS (SELECT 1 FROM " + storage.getClusterMetaTable() + " AS m"
+            + " WHERE m.cluster_id = k.cluster_id)"
+            + " ON CONFLICT (cluster_id) DO UPDATE SET datestamp = EXCLUDED.datestamp,"
+            + " transformer = EXCLUDED.transformer, metadata = EXCLUDED.metadata"
+            + " WHERE EXCLUDED.datestamp >= " + table + ".datestamp")
+        .execute(Tuple.of(clusterIds.toArray(new UUID[0]),
+            datestamps.toArray(new LocalDateTime[0]), metadata.toArray(new Buffer[0]),
+            transformer))
+        .mapEmpty();
+  }
+
+  static byte[] compress(String value) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+      gzip.write(value.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  static String decompress(byte[] value) {
+    try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(value))) {
+      return new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
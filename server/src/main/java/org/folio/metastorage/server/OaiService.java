@@ -13,11 +13,12 @@ import io.vertx.sqlclient.Row;
 import io.vertx.sqlclient.RowIterator;
 import io.vertx.sqlclient.RowStream;
 import io.vertx.sqlclient.SqlConnection;
-import io.vertx.sqlclient.Transaction;
 import io.vertx.sqlclient.Tuple;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.logging.log4j.LogManager;
@@ -189,16 +190,19 @@ public final class OaiService {
       ResumptionToken resumptionToken = new ResumptionToken(conf.getString("id"), until);
       sqlQuery.append(" ORDER BY datestamp, cluster_id");
       return getTransformerModule(storage, ctx)
-          .compose(module -> storage.getPool().getConnection().compose(conn ->
-              listRecordsResponse(ctx, module, storage, conn, sqlQuery.toString(),
-                  Tuple.from(tupleList), limit, withMetadata, resumptionToken)
-          ));
+          .compose(module -> getRecordCache(storage).compose(recordCache ->
+              storage.getPool().getConnection().compose(conn ->
+                  listRecordsResponse(ctx, module, recordCache, storage, conn,
+                      sqlQuery.toString(), Tuple.from(tupleList), limit, withMetadata,
+                      resumptionToken))));
     });
   }
 
-  private static void endListResponse(RoutingContext ctx, SqlConnection conn, Transaction tx,
-      String elem) {
-    tx.commit().compose(y -> conn.close());
+  private static void endListResponse(RoutingContext ctx, StreamTransaction tx, String elem) {
+    if (tx.isEnded()) {
+      return;
+    }
+    tx.end();
     HttpServerResponse response = ctx.response();
     if (!response.headWritten()) { // no records returned is an error which is so weird.
       oaiHeader(ctx);
@@ -282,12 +286,50 @@ public final class OaiService {
         });
   }
 
-  static Future<ClusterBuilder> getClusterValues(Storage storage, SqlConnection conn,
-      UUID clusterId, ClusterBuilder cb) {
-    return conn.preparedQuery("SELECT match_value FROM " + storage.getClusterValuesTable()
-            + " WHERE cluster_id = $1")
-        .execute(Tuple.of(clusterId))
-        .map(cb::matchValues);
+  /**
+   * Get cache of rendered records, if enabled with recordCache in OAI configuration.
+   * @param storage storage of tenant
+   * @return async result with cache for the configured transformer; null if not enabled
+   */
+  static Future<OaiRecordCache> getRecordCache(Storage storage) {
+    return storage.selectOaiConfig()
+        .compose(oaiCfg -> {
+          if (oaiCfg == null || !oaiCfg.getBoolean("recordCache", false)) {
+            return Future.succeededFuture(null);
+          }
+          String transformer = oaiCfg.getString("transformer");
+          if (transformer == null) {
+            return Future.succeededFuture(new OaiRecordCache(storage, ""));
+          }
+          // the module configuration is part of the key, so entries are not used after it changes
+          return storage.selectCodeModuleEntity(transformer)
+              .map(module -> module == null
+                  ? null : new OaiRecordCache(storage, module.asJson().encode()));
+        });
+  }
+
+  /**
+   * Set match values of clusters with one query.
+   * @param storage storage of tenant
+   * @param conn connection
+   * @param clusterIds identifiers of clusters
+   * @param clusters builders of clusters to set match values for
+   * @return async result
+   */
+  static Future<Void> getClusterValues(Storage storage, SqlConnection conn,
+      UUID[] clusterIds, Map<UUID, ClusterBuilder> clusters) {
+    return conn.preparedQuery("SELECT cluster_id, match_value FROM "
+            + storage.getClusterValuesTable() + " WHERE cluster_id = ANY($1)")
+        .execute(Tuple.of(clusterIds))
+        .map(rowSet -> {
+          Map<UUID, JsonArray> matchValues = new HashMap<>();
+          rowSet.forEach(row -> matchValues
+              .computeIfAbsent(row.getUUID("cluster_id"), id -> new JsonArray())
+              .add(row.getString("match_value")));
+          clusters.forEach((id, cb) ->
+              cb.matchValues(matchValues.getOrDefault(id, new JsonArray())));
+          return null;
+        });
   }
 
   static void writeResumptionToken(RoutingContext ctx, ResumptionToken token) {
@@ -298,17 +340,19 @@ public final class OaiService {
   }
 
   @java.lang.SuppressWarnings({"squid:S107"})  // too many arguments
-  static Future<Void> listRecordsResponse(RoutingContext ctx, Module module, Storage storage,
-      SqlConnection conn, String sqlQuery, Tuple tuple, Integer limit, boolean withMetadata,
-      ResumptionToken token) {
+  static Future<Void> listRecordsResponse(RoutingContext ctx, Module module,
+      OaiRecordCache recordCache, Storage storage, SqlConnection conn, String sqlQuery,
+      Tuple tuple, Integer limit, boolean withMetadata, ResumptionToken token) {
 
     String elem = withMetadata ? "ListRecords" : "ListIdentifiers";
     return conn.prepare(sqlQuery).compose(pq ->
-        conn.begin().compose(tx -> {
+        StreamTransaction.begin(ctx, conn).compose(tx -> {
           HttpServerResponse response = ctx.response();
           ClusterRecordStream clusterRecordStream
-              = new ClusterRecordStream(ctx.vertx(), storage, conn, response, module, withMetadata);
+              = new ClusterRecordStream(ctx.vertx(), storage, conn, response, module,
+              recordCache, withMetadata);
           RowStream<Row> stream = pq.createStream(100, tuple);
+          tx.setStream(stream);
           AtomicInteger cnt = new AtomicInteger();
           clusterRecordStream.drainHandler(x -> stream.resume());
           stream.handler(row -> {
@@ -322,7 +366,7 @@ public final class OaiService {
               stream.pause();
               clusterRecordStream.end().onComplete(y -> {
                 writeResumptionToken(ctx, token);
-                endListResponse(ctx, conn, tx, elem);
+                endListResponse(ctx, tx, elem);
               });
               return;
             }
@@ -335,11 +379,11 @@ public final class OaiService {
           });
           stream.endHandler(end ->
               clusterRecordStream.end()
-                  .onComplete(y -> endListResponse(ctx, conn, tx, elem))
+                  .onComplete(y -> endListResponse(ctx, tx, elem))
           );
           stream.exceptionHandler(e -> {
             log.error("stream error {}", e.getMessage(), e);
-            endListResponse(ctx, conn, tx, elem);
+            endListResponse(ctx, tx, elem);
           });
           return Future.succeededFuture();
         })
@@ -354,31 +398,31 @@ public final class OaiService {
     }
     UUID clusterId = decodeOaiIdentifier(identifier);
     Storage storage = new Storage(ctx);
-    return getTransformerModule(storage, ctx).compose(module -> {
-      String sqlQuery = "SELECT * FROM " + storage.getClusterMetaTable() + " WHERE cluster_id = $1";
-      return storage.getPool()
-          .withConnection(conn -> conn.preparedQuery(sqlQuery)
-              .execute(Tuple.of(clusterId))
-              .compose(res -> {
-                RowIterator<Row> iterator = res.iterator();
-                if (!iterator.hasNext()) {
-                  throw OaiException.idDoesNotExist(identifier);
-                }
-                Row row = iterator.next();
-                ClusterRecordItem cr = new ClusterRecordItem(row);
-                HttpServerResponse response = ctx.response();
-                ClusterRecordStream clusterRecordStream
-                    = new ClusterRecordStream(ctx.vertx(), storage, conn, response, module, true);
-                return clusterRecordStream.getClusterRecordMetadata(cr)
-                    .map(buf -> {
-                      oaiHeader(ctx);
-                      response.write("  <GetRecord>\n");
-                      response.write(buf);
-                      response.write("  </GetRecord>\n");
-                      oaiFooter(ctx);
-                      return null;
-                    });
-              }));
-    });
+    String sqlQuery = "SELECT * FROM " + storage.getClusterMetaTable() + " WHERE cluster_id = $1";
+    return getTransformerModule(storage, ctx).compose(module ->
+        getRecordCache(storage).compose(recordCache -> storage.getPool()
+            .withConnection(conn -> conn.preparedQuery(sqlQuery)
+                .execute(Tuple.of(clusterId))
+                .compose(res -> {
+                  RowIterator<Row> iterator = res.iterator();
+                  if (!iterator.hasNext()) {
+                    throw OaiException.idDoesNotExist(identifier);
+                  }
+                  Row row = iterator.next();
+                  ClusterRecordItem cr = new ClusterRecordItem(row);
+                  HttpServerResponse response = ctx.response();
+                  ClusterRecordStream clusterRecordStream
+                      = new ClusterRecordStream(ctx.vertx(), storage, conn, response, module,
+                      recordCache, true);
+                  return clusterRecordStream.getClusterRecordMetadata(cr)
+                      .map(buf -> {
+                        oaiHeader(ctx);
+                        response.write("  <GetRecord>\n");
+                        response.write(buf);
+                        response.write("  </GetRecord>\n");
+                        oaiFooter(ctx);
+                        return null;
+                      });
+                }))));
   }
 }
@@ -0,0 +1,99 @@
+package org.folio.metastorage.server;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Tuple;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Total count and facet counts of a streaming result.
+ *
+ * <p>Counts are either exact, from COUNT queries, or estimated from the row estimates of
+ * the query planner. An estimate costs a plan rather than a scan, but is only as good as
+ * the table statistics, so small results are counted exactly.
+ */
+class ResultCount {
+
+  private final List<Integer> counts;
+  private final boolean estimated;
+
+  ResultCount(List<Integer> counts, boolean estimated) {
+    this.counts = counts;
+    this.estimated = estimated;
+  }
+
+  /**
+   * Get count.
+   * @param pos 0 for total; 1 and up for facets
+   * @return count
+   */
+  int get(int pos) {
+    return counts.get(pos);
+  }
+
+  boolean isEstimated() {
+    return estimated;
+  }
+
+  /**
+   * Count exactly.
+   * @param conn connection
+   * @param query query with a count column for total and each facet
+   * @param tuple parameters of query
+   * @return async result
+   */
+  static Future<ResultCount> exact(SqlConnection conn, String query, Tuple tuple) {
+    return conn.preparedQuery(query).execute(tuple).map(rowSet -> {
+      Row row = rowSet.iterator().next();
+      List<Integer> counts = new ArrayList<>(row.size());
+      for (int i = 0; i < row.size(); i++) {
+        counts.add(row.getInteger(i));
+      }
+      return new ResultCount(counts, false);
+    });
+  }
+
+  /**
+   * Estimate counts, counting exactly if the total estimate is below threshold.
+   * @param conn connection
+   * @param queries query to estimate for total and each facet
+   * @param tuples parameters of each query
+   * @param threshold total estimate from which counts are not exact
+   * @param exactQuery query for {@link #exact(SqlConnection, String, Tuple)}
+   * @param exactTuple parameters of exact query
+   * @return async result
+   */
+  static Future<ResultCount> estimate(SqlConnection conn, List<String> queries,
+      List<Tuple> tuples, int threshold, String exactQuery, Tuple exactTuple) {
+
+    List<Integer> counts = new ArrayList<>(queries.size());
+    Future<Void> future = Future.succeededFuture();
+    for (int i = 0; i < queries.size(); i++) {
+      String query = "EXPLAIN (FORMAT JSON) " + queries.get(i);
+      Tuple tuple = tuples.get(i);
+      future = future.compose(x -> conn.preparedQuery(query).execute(tuple)
+          .map(rowSet -> counts.add(planRows(rowSet.iterator().next().getValue(0))))
+          .mapEmpty());
+    }
+    return future.compose(x -> {
+      if (counts.get(0) < threshold) {
+        return exact(conn, exactQuery, exactTuple);
+      }
+      return Future.succeededFuture(new ResultCount(counts, true));
+    });
+  }
+
+  /**
+   * Get estimated rows of plan.
+   * @param plan output of EXPLAIN (FORMAT JSON); JSON array or its text
+   * @return estimated number of rows
+   */
+  static int planRows(Object plan) {
+    JsonArray plans = plan instanceof JsonArray ? (JsonArray) plan : new JsonArray(plan.toString());
+    long rows = plans.getJsonObject(0).getJsonObject("Plan").getLong("Plan Rows");
+    return (int) Math.min(rows, Integer.MAX_VALUE);
+  }
+}
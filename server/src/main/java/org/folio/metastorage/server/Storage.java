@@ -3,41 +3,50 @@ package org.folio.metastorage.server;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.validation.RequestParameter;
 import io.vertx.ext.web.validation.RequestParameters;
 import io.vertx.ext.web.validation.ValidationHandler;
+import io.vertx.pgclient.PgException;
 import io.vertx.sqlclient.Row;
 import io.vertx.sqlclient.RowIterator;
-import io.vertx.sqlclient.RowSet;
 import io.vertx.sqlclient.RowStream;
 import io.vertx.sqlclient.SqlConnection;
 import io.vertx.sqlclient.Tuple;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.folio.metastorage.matchkey.MatchKeyMethod;
+import org.folio.metastorage.matchkey.MatchKeyPayload;
 import org.folio.metastorage.server.entity.ClusterBuilder;
 import org.folio.metastorage.server.entity.CodeModuleEntity;
+import org.folio.metastorage.util.AdaptiveConcurrency;
+import org.folio.metastorage.util.BatchReadStream;
 import org.folio.metastorage.util.LargeJsonReadStream;
 import org.folio.metastorage.util.ReadStreamConsumer;
 import org.folio.metastorage.util.SourceId;
-import org.folio.okapi.common.GenericCompositeFuture;
 import org.folio.tlib.postgres.TenantPgPool;
 import org.folio.tlib.util.TenantUtil;
 
@@ -48,8 +57,15 @@ public class Storage {
 
   private static final String CREATE_IF_NO_EXISTS = "CREATE TABLE IF NOT EXISTS ";
 
+  private static final String DEADLOCK_DETECTED = "40P01";
+
+  private static final int INGEST_TRANSACTION_ATTEMPTS = 5;
+
+  private static final long INGEST_RETRY_DELAY_MS = 10;
+
   private static final int MATCHVALUE_MAX_LENGTH = 600; // < 2704 / 4
   final TenantPgPool pool;
+  final Vertx vertx;
   final String globalRecordTable;
   final String matchKeyConfigTable;
   final String clusterRecordTable;
@@ -58,9 +74,21 @@ public class Storage {
   final String moduleTable;
   final String oaiConfigTable;
   final String oaiPmhClientTable;
-  private final String tenant;
+  final String ingestJobTable;
+  final String initializeJobTable;
+  final String initializePartitionTable;
+  final String oaiRecordCacheTable;
+  final String tenant;
   static int sqlStreamFetchSize = 50;
-
+  private static final String UPSERT_CHANGED_PAYLOAD =
+      " ON CONFLICT (local_id, source_id, source_version) DO UPDATE"
+          + " SET payload = EXCLUDED.payload, payload_hash = EXCLUDED.payload_hash"
+          + " WHERE global_records.payload_hash IS DISTINCT FROM EXCLUDED.payload_hash";
+  static int ingestBatchSize = 100;
+  static int mergeChunkSize = 10000;
+  static int countEstimateThreshold = 10000;
+  static int streamWriteQueueMaxSize = 65536;
+  static AdaptiveConcurrency ingestConcurrency = new AdaptiveConcurrency(5, 1, 32);
 
   /**
    * Create storage service for tenant.
@@ -68,6 +96,7 @@ public class Storage {
    * @param tenant tenant
    */
   public Storage(Vertx vertx, String tenant) {
+    this.vertx = vertx;
     this.pool = TenantPgPool.pool(vertx, tenant);
     this.tenant = tenant;
     this.globalRecordTable = pool.getSchema() + ".global_records";
@@ -78,12 +107,65 @@ public class Storage {
     this.moduleTable = pool.getSchema() + ".module";
     this.oaiConfigTable = pool.getSchema() + ".oai_config";
     this.oaiPmhClientTable = pool.getSchema() + ".oai_pmh_clients";
+    this.ingestJobTable = pool.getSchema() + ".ingest_jobs";
+    this.initializeJobTable = pool.getSchema() + ".initialize_jobs";
+    this.initializePartitionTable = pool.getSchema() + ".initialize_partitions";
+    this.oaiRecordCacheTable = pool.getSchema() + ".oai_record_cache";
   }
 
   public Storage(RoutingContext routingContext) {
     this(routingContext.vertx(), TenantUtil.tenant(routingContext));
   }
 
+  /**
+   * Set number of records ingested in each transaction by updateGlobalRecords.
+   * @param size number of records; 1 for a transaction per record
+   */
+  public static void setIngestBatchSize(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("ingest batch size must be at least 1");
+    }
+    ingestBatchSize = size;
+  }
+
+  /**
+   * Set maximum number of concurrent ingest operations.
+   *
+   * <p>The limit is shared by all ingest requests and OAI-PMH harvesting and is adapted
+   * to database latency between 1 and the maximum.
+   * @param max maximum limit
+   */
+  public static void setIngestConcurrencyMax(int max) {
+    ingestConcurrency = new AdaptiveConcurrency(Math.min(5, max), 1, max);
+  }
+
+  /**
+   * Set estimated total from which count=estimate does not count exactly.
+   * @param threshold estimated number of rows; 0 to always estimate
+   */
+  public static void setCountEstimateThreshold(int threshold) {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("count estimate threshold must not be negative");
+    }
+    countEstimateThreshold = threshold;
+  }
+
+  /**
+   * Set size of data written to a streamed response but not yet sent to the client,
+   * from which reading of rows waits for the client.
+   * @param size size in bytes
+   */
+  public static void setStreamWriteQueueMaxSize(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("stream write queue max size must be at least 1");
+    }
+    streamWriteQueueMaxSize = size;
+  }
+
+  public static AdaptiveConcurrency getIngestConcurrency() {
+    return ingestConcurrency;
+  }
+
   public TenantPgPool getPool() {
     return pool;
   }
@@ -112,6 +194,10 @@ public class Storage {
     return oaiPmhClientTable;
   }
 
+  public String getOaiRecordCacheTable() {
+    return oaiRecordCacheTable;
+  }
+
   /**
    * Prepares storage with tables, etc.
    * @return async result.
@@ -129,6 +215,8 @@ public class Storage {
             "DROP INDEX IF EXISTS idx_local_id",
             "ALTER TABLE " + globalRecordTable + " ADD COLUMN IF NOT EXISTS"
                 + " source_version integer DEFAULT 1",
+            "ALTER TABLE " + globalRecordTable + " ADD COLUMN IF NOT EXISTS"
+                + " payload_hash VARCHAR",
             "CREATE UNIQUE INDEX IF NOT EXISTS idx_local_source ON " + globalRecordTable
                 + " (local_id, source_id, source_version)",
             "CREATE INDEX IF NOT EXISTS idx_source ON " + globalRecordTable
@@ -176,27 +264,94 @@ public class Storage {
                 + " config JSONB NOT NULL)",
             CREATE_IF_NO_EXISTS + oaiPmhClientTable
                 + "(id VARCHAR NOT NULL PRIMARY KEY,"
-                + " config JSONB, job JSONB, stop BOOLEAN, owner UUID)"
+                + " config JSONB, job JSONB, stop BOOLEAN, owner UUID)",
+            CREATE_IF_NO_EXISTS + ingestJobTable
+                + "(id uuid NOT NULL PRIMARY KEY,"
+                + " source_id VARCHAR NOT NULL,"
+                + " source_version integer DEFAULT 1,"
+                + " auto_rollback_timeout integer,"
+                + " created TIMESTAMP NOT NULL,"
+                + " last_active TIMESTAMP NOT NULL)",
+            CREATE_IF_NO_EXISTS + initializeJobTable
+                + "(id uuid NOT NULL PRIMARY KEY,"
+                + " match_key_config_ids VARCHAR[] NOT NULL,"
+                + " owner uuid,"
+                + " started TIMESTAMP NOT NULL,"
+                + " run_started TIMESTAMP NOT NULL,"
+                + " run_records bigint NOT NULL,"
+                + " estimated_records bigint,"
+                + " last_active TIMESTAMP NOT NULL,"
+                + " finished TIMESTAMP,"
+                + " error VARCHAR)",
+            CREATE_IF_NO_EXISTS + initializePartitionTable
+                + "(job_id uuid NOT NULL,"
+                + " part integer NOT NULL,"
+                + " lower_id uuid NOT NULL,"
+                + " upper_id uuid,"
+                + " last_id uuid,"
+                + " records bigint NOT NULL DEFAULT 0,"
+                + " done BOOLEAN NOT NULL DEFAULT FALSE,"
+                + " PRIMARY KEY (job_id, part),"
+                + " FOREIGN KEY(job_id) REFERENCES " + initializeJobTable + " ON DELETE CASCADE)",
+            CREATE_IF_NO_EXISTS + oaiRecordCacheTable
+                + "(cluster_id uuid NOT NULL PRIMARY KEY,"
+                + " datestamp TIMESTAMP NOT NULL,"
+                + " transformer VARCHAR NOT NULL,"
+                + " metadata bytea NOT NULL,"
+                + " FOREIGN KEY(cluster_id) REFERENCES " + clusterMetaTable + " ON DELETE CASCADE)",
+            // records may render differently with a new version
+            "TRUNCATE " + oaiRecordCacheTable
         )
-    ).mapEmpty();
+    ).compose(x -> pool.withConnection(conn -> MatchKeyConfigCache.notify(conn, tenant)));
+  }
+
+  /**
+   * SQL expression for hash of payload.
+   *
+   * <p>The hash is of the jsonb text representation, so key order and white space
+   * in the original JSON do not matter.
+   * @param payload SQL expression for payload
+   * @return SQL expression
+   */
+  static String payloadHash(String payload) {
+    return "md5(" + payload + "::jsonb::text)";
   }
 
+  /**
+   * Insert/update global record.
+   *
+   * <p>If the payload is unchanged (same hash), nothing is written and
+   * match keys are not updated.
+   * @param vertx Vert.x handle
+   * @param conn connection
+   * @param localIdentifier local identifier
+   * @param sourceId source identifier
+   * @param sourceVersion source version
+   * @param payload record payload
+   * @param matchKeyConfigs match key configrations in use
+   * @return async result with TRUE=inserted, FALSE=updated or unchanged
+   */
   Future<Boolean> upsertGlobalRecord(Vertx vertx, SqlConnection conn, String localIdentifier,
       SourceId sourceId, int sourceVersion, JsonObject payload, JsonArray matchKeyConfigs) {
 
     UUID startId = UUID.randomUUID();
     return conn.preparedQuery(
             "INSERT INTO " + globalRecordTable
-                + " (id, local_id, source_id, source_version, payload)"
-                + " VALUES ($1, $2, $3, $4, $5)"
-                + " ON CONFLICT (local_id, source_id, source_version) DO UPDATE "
-                + " SET payload = $5"
+                + " (id, local_id, source_id, source_version, payload, payload_hash)"
+                + " VALUES ($1, $2, $3, $4, $5, " + payloadHash("$5") + ")"
+                + UPSERT_CHANGED_PAYLOAD
                 + " RETURNING id"
         )
         .execute(Tuple.of(startId, localIdentifier, sourceId.toString(), sourceVersion, payload))
-        .map(rowSet -> rowSet.iterator().next().getUUID("id"))
-        .compose(id -> updateMatchKeyValues(vertx, conn, id, payload, matchKeyConfigs)
-            .map(x -> id.equals(startId)));
+        .compose(rowSet -> {
+          RowIterator<Row> iterator = rowSet.iterator();
+          if (!iterator.hasNext()) {
+            return Future.succeededFuture(Boolean.FALSE);
+          }
+          UUID id = iterator.next().getUUID("id");
+          return updateClusters(vertx, conn, Map.of(id, payload), matchKeyConfigs, true)
+              .map(x -> id.equals(startId));
+        });
   }
 
   Future<Void> deleteGlobalRecord(SqlConnection conn, String localIdentifier, SourceId sourceId,
@@ -227,16 +382,9 @@ public class Storage {
   Future<Boolean> ingestGlobalRecord(Vertx vertx, SourceId sourceId, int sourceVersion,
       JsonObject globalRecord, JsonArray matchKeyConfigs) {
 
-    return pool.withTransaction(conn ->
-            ingestGlobalRecord(vertx, conn, sourceId, sourceVersion,
-                globalRecord, matchKeyConfigs))
-        // addValuesToCluster may fail if for same new match key for parallel operations
-        // we recover just once for that. 2nd will find the new value for the one that
-        // succeeded.
-        .recover(x ->
-            pool.withTransaction(conn ->
-                ingestGlobalRecord(vertx, conn, sourceId, sourceVersion,
-                    globalRecord, matchKeyConfigs)));
+    return withIngestTransaction(conn ->
+        ingestGlobalRecord(vertx, conn, sourceId, sourceVersion,
+            globalRecord, matchKeyConfigs));
   }
 
   /**
@@ -272,183 +420,464 @@ public class Storage {
         sourceVersion, payload, matchKeyConfigs);
   }
 
-  Future<Void> updateMatchKeyValues(Vertx vertx, SqlConnection conn, UUID globalId,
-      JsonObject payload, JsonArray matchKeyConfigs) {
-    List<Future<Void>> futures = new ArrayList<>(matchKeyConfigs.size());
-    for (int i = 0; i < matchKeyConfigs.size(); i++) {
-      JsonObject matchKeyConfig = matchKeyConfigs.getJsonObject(i);
-      futures.add(updateMatchKeyValues(vertx, conn, globalId, payload, matchKeyConfig));
-    }
-    return GenericCompositeFuture.all(futures).mapEmpty();
+  /**
+   * Insert/update/delete set of global records in one transaction.
+   * @param vertx Vert.x handle
+   * @param sourceId source identifier
+   * @param sourceVersion source version
+   * @param globalRecords global record JSON objects
+   * @param matchKeyConfigs match key configrations in use
+   * @return async result with TRUE=inserted, FALSE=updated, null=deleted for each record
+   */
+  Future<List<Boolean>> ingestGlobalRecords(Vertx vertx, SourceId sourceId, int sourceVersion,
+      List<JsonObject> globalRecords, JsonArray matchKeyConfigs) {
+
+    return withIngestTransaction(conn ->
+        ingestGlobalRecords(vertx, conn, sourceId, sourceVersion,
+            globalRecords, matchKeyConfigs));
   }
 
-  Future<Void> updateMatchKeyValues(Vertx vertx, SqlConnection conn, UUID globalId,
-      JsonObject payload, JsonObject matchKeyConfig) {
+  /**
+   * Insert/update/delete set of global records.
+   *
+   * <p>If the same local identifier occurs more than once, the last one wins.
+   * @param vertx Vert.x handle
+   * @param conn connection
+   * @param sourceId source identifier
+   * @param sourceVersion source version
+   * @param globalRecords global record JSON objects
+   * @param matchKeyConfigs match key configrations in use
+   * @return async result with TRUE=inserted, FALSE=updated, null=deleted for each record
+   */
+  Future<List<Boolean>> ingestGlobalRecords(Vertx vertx, SqlConnection conn,
+      SourceId sourceId, int sourceVersion, List<JsonObject> globalRecords,
+      JsonArray matchKeyConfigs) {
 
-    String update = matchKeyConfig.getString("update");
-    if ("manual".equals(update)) {
-      return Future.succeededFuture();
+    Map<String, JsonObject> upserts = new LinkedHashMap<>();
+    Set<String> deletes = new LinkedHashSet<>();
+    for (JsonObject globalRecord : globalRecords) {
+      String localIdentifier = globalRecord.getString("localId");
+      if (localIdentifier == null) {
+        return Future.failedFuture("localId required");
+      }
+      if (Boolean.TRUE.equals(globalRecord.getBoolean("delete"))) {
+        upserts.remove(localIdentifier);
+        deletes.add(localIdentifier);
+        continue;
+      }
+      JsonObject payload = globalRecord.getJsonObject("payload");
+      if (payload == null) {
+        return Future.failedFuture("payload required");
+      }
+      deletes.remove(localIdentifier);
+      upserts.put(localIdentifier, payload);
     }
-    String methodName = matchKeyConfig.getString("method");
-    JsonObject params = matchKeyConfig.getJsonObject("params");
-    String id = matchKeyConfig.getString("id");
-    return MatchKeyMethod.get(vertx, tenant, id, methodName, params)
-        .compose(matchKeyMethod -> {
-          Set<String> keys = new HashSet<>();
-          matchKeyMethod.getKeys(payload, keys);
-          String matchKeyConfigId = matchKeyConfig.getString("id");
-          return updateMatchKeyValues(conn, globalId, matchKeyConfigId, keys);
+    if (sourceId == null) {
+      return Future.failedFuture("sourceId required");
+    }
+    return deleteGlobalRecordsByLocalId(conn, deletes, sourceId, sourceVersion)
+        .compose(x -> upsertGlobalRecords(vertx, conn, upserts, sourceId, sourceVersion,
+            matchKeyConfigs))
+        .map(inserted -> {
+          List<Boolean> result = new ArrayList<>(globalRecords.size());
+          globalRecords.forEach(globalRecord ->
+              result.add(inserted.get(globalRecord.getString("localId"))));
+          return result;
         });
   }
 
-  Future<Void> updateMatchKeyValues(SqlConnection conn, UUID globalId,
-      String matchKeyConfigId, Collection<String> keys) {
+  Future<Void> deleteGlobalRecordsByLocalId(SqlConnection conn, Collection<String> localIdentifiers,
+      SourceId sourceId, int sourceVersion) {
 
-    Set<String> truncatedKeys = new HashSet<>();
-    keys.forEach(k -> truncatedKeys.add(k.length() > MATCHVALUE_MAX_LENGTH
-          ? k.substring(0, MATCHVALUE_MAX_LENGTH) : k));
-
-    return updateClusterForRecord(conn, globalId, matchKeyConfigId, truncatedKeys);
+    if (localIdentifiers.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    String[] localIds = localIdentifiers.toArray(new String[0]);
+    String q = "UPDATE " + clusterMetaTable + " AS m"
+        + " SET datestamp = $4"
+        + " FROM " + globalRecordTable + ", " + clusterRecordTable + " AS r"
+        + " WHERE m.cluster_id = r.cluster_id AND r.record_id = id"
+        + " AND local_id = ANY($1) AND source_id = $2 and source_version = $3";
+    return conn.preparedQuery(q)
+        .execute(Tuple.of(localIds, sourceId.toString(), sourceVersion,
+            LocalDateTime.now(ZoneOffset.UTC)))
+        .compose(x -> conn.preparedQuery("DELETE FROM " + globalRecordTable
+                + " WHERE local_id = ANY($1) AND source_id = $2 and source_version = $3")
+            .execute(Tuple.of(localIds, sourceId.toString(), sourceVersion))
+            .mapEmpty());
   }
 
-  Future<Set<UUID>> updateClusterValues(SqlConnection conn, UUID newClusterId,
-      String matchKeyConfigId, Collection<String> keys) {
+  /**
+   * Insert/update global records with a single multi-row INSERT.
+   * @param vertx Vert.x handle
+   * @param conn connection
+   * @param payloads payload for each local identifier
+   * @param sourceId source identifier
+   * @param sourceVersion source version
+   * @param matchKeyConfigs match key configrations in use
+   * @return async result with local identifiers mapped to TRUE=inserted, FALSE=updated
+   */
+  Future<Map<String, Boolean>> upsertGlobalRecords(Vertx vertx, SqlConnection conn,
+      Map<String, JsonObject> payloads, SourceId sourceId, int sourceVersion,
+      JsonArray matchKeyConfigs) {
 
-    Set<UUID> clustersFound = new HashSet<>();
-    if (keys.isEmpty()) {
-      return Future.succeededFuture(clustersFound);
+    Map<String, Boolean> inserted = new HashMap<>();
+    if (payloads.isEmpty()) {
+      return Future.succeededFuture(inserted);
     }
-    StringBuilder q = new StringBuilder("SELECT cluster_id, match_value FROM " + clusterValueTable
-        + " WHERE match_key_config_id = $1 AND (");
+    StringBuilder q = new StringBuilder("INSERT INTO " + globalRecordTable
+        + " (id, local_id, source_id, source_version, payload, payload_hash) VALUES");
     List<Object> tupleList = new ArrayList<>();
-    tupleList.add(matchKeyConfigId);
-    int no = 2;
-    for (String key : keys) {
-      if (no > 2) {
-        q.append(" OR ");
+    tupleList.add(sourceId.toString());
+    tupleList.add(sourceVersion);
+    Map<String, UUID> startIds = new HashMap<>();
+    int no = 3;
+    for (Map.Entry<String, JsonObject> entry : payloads.entrySet()) {
+      UUID startId = UUID.randomUUID();
+      startIds.put(entry.getKey(), startId);
+      if (no > 3) {
+        q.append(",");
       }
-      q.append("match_value = $" + no++);
-      tupleList.add(key);
+      q.append(" ($" + no + ", $" + (no + 1) + ", $1, $2, $" + (no + 2)
+          + ", " + payloadHash("$" + (no + 2)) + ")");
+      tupleList.add(startId);
+      tupleList.add(entry.getKey());
+      tupleList.add(entry.getValue());
+      no += 3;
     }
-    q.append(")");
-    Set<String> foundKeys = new HashSet<>();
+    q.append(UPSERT_CHANGED_PAYLOAD + " RETURNING id, local_id");
     return conn.preparedQuery(q.toString())
         .execute(Tuple.from(tupleList))
-        .map(rowSet -> {
-          rowSet.forEach(row -> {
-            foundKeys.add(row.getString("match_value"));
-            clustersFound.add(row.getUUID("cluster_id"));
-          });
-          if (clustersFound.isEmpty()) {
-            return newClusterId;
-          } else {
-            return clustersFound.iterator().next();
+        .compose(rowSet -> {
+          // records with unchanged payload are not returned
+          payloads.keySet().forEach(localId -> inserted.put(localId, Boolean.FALSE));
+          Map<UUID, JsonObject> globalPayloads = new LinkedHashMap<>();
+          for (Row row : rowSet) {
+            UUID id = row.getUUID("id");
+            String localId = row.getString("local_id");
+            inserted.put(localId, id.equals(startIds.get(localId)));
+            globalPayloads.put(id, payloads.get(localId));
           }
+          return updateClusters(vertx, conn, globalPayloads, matchKeyConfigs, true);
         })
-        .compose(clusterId ->
-            addValuesToCluster(conn, clusterId, matchKeyConfigId, keys, foundKeys)
-        )
-        .map(clustersFound);
+        .map(inserted);
   }
 
-  Future<Void> updateClusterForRecord(SqlConnection conn, UUID globalId,
-      String matchKeyConfigId, Collection<String> keys) {
+  static Set<String> truncateKeys(Collection<String> keys) {
+    Set<String> truncatedKeys = new HashSet<>();
+    keys.forEach(k -> truncatedKeys.add(k.length() > MATCHVALUE_MAX_LENGTH
+          ? k.substring(0, MATCHVALUE_MAX_LENGTH) : k));
+    return truncatedKeys;
+  }
 
-    UUID newClusterId = UUID.randomUUID();
-    return updateClusterValues(conn, newClusterId, matchKeyConfigId, keys)
-        .compose(clustersFound -> {
-          Iterator<UUID> iterator = clustersFound.iterator();
-          if (!iterator.hasNext()) {
-            return createMetaEntry(conn, newClusterId, matchKeyConfigId);
-          }
-          return updateMetaEntries(conn, clustersFound).compose(c -> {
-            UUID clusterId = iterator.next();
-            if (!iterator.hasNext()) {
-              return Future.succeededFuture(clusterId); // exactly one already
-            }
-            // multiple clusters: merge remaining with this one
-            return mergeClusters(conn, clusterId, iterator).map(clusterId);
-          });
-        })
-        .compose(clusterId ->
-            conn.preparedQuery("INSERT INTO " + clusterRecordTable
-                    + " (record_id, match_key_config_id, cluster_id) VALUES ($1, $2, $3)"
-                    + " ON CONFLICT (record_id, match_key_config_id)"
-                    + " DO UPDATE SET record_id = $1, match_key_config_id = $2, cluster_id = $3")
-                .execute(Tuple.of(globalId, matchKeyConfigId, clusterId))
-        )
+  Future<Void> updateMetaEntries(SqlConnection conn, Set<UUID> clusters) {
+    if (clusters.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    return conn.preparedQuery("UPDATE " + clusterMetaTable
+            + " SET datestamp = $1 WHERE cluster_id = ANY($2)")
+        .execute(Tuple.of(LocalDateTime.now(ZoneOffset.UTC), clusters.toArray(new UUID[0])))
         .mapEmpty();
   }
 
-  Future<Void> addValuesToCluster(SqlConnection conn, UUID clusterId, String matchKeyConfigId,
-      Collection<String> keys, Set<String> foundKeys) {
+  Future<Void> mergeClusters(SqlConnection conn, Map<UUID, UUID> merged) {
+    if (merged.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    String setClause = " SET cluster_id = m.target"
+        + " FROM unnest($1::uuid[], $2::uuid[]) AS m(source, target)"
+        + " WHERE cluster_id = m.source";
+    Tuple tuple = Tuple.of(merged.keySet().toArray(new UUID[0]),
+        merged.values().toArray(new UUID[0]));
+    return conn.preparedQuery("UPDATE " + clusterValueTable + setClause)
+        .execute(tuple)
+        .compose(x -> conn.preparedQuery("UPDATE " + clusterRecordTable + setClause)
+            .execute(tuple))
+        .mapEmpty();
+  }
 
-    StringBuilder q = new StringBuilder("INSERT INTO " + clusterValueTable
-        + " (cluster_id, match_key_config_id, match_value) VALUES");
+  /**
+   * Get match key methods for configurations.
+   * @param vertx Vert.x handle
+   * @param matchKeyConfigs match key configurations
+   * @param includeManual whether to include match keys with manual update
+   * @return async result with method for each match key identifier
+   */
+  Future<Map<String, MatchKeyMethod>> getMatchKeyMethods(Vertx vertx, JsonArray matchKeyConfigs,
+      boolean includeManual) {
 
-    List<Object> tupleList = new ArrayList<>();
-    tupleList.add(clusterId);
-    tupleList.add(matchKeyConfigId);
-    int no = 3;
-    for (String key: keys) {
-      if (!foundKeys.contains(key)) {
-        if (no > 3) {
-          q.append(",");
-        }
-        q.append(" ($1, $2, $" + no + ")");
-        tupleList.add(key);
-        no++;
+    Map<String, MatchKeyMethod> matchKeyMethods = new LinkedHashMap<>();
+    Future<Void> future = Future.succeededFuture();
+    for (int i = 0; i < matchKeyConfigs.size(); i++) {
+      JsonObject matchKeyConfig = matchKeyConfigs.getJsonObject(i);
+      if (!includeManual && "manual".equals(matchKeyConfig.getString("update"))) {
+        continue;
       }
+      String id = matchKeyConfig.getString("id");
+      future = future
+          .compose(x -> MatchKeyMethod.get(vertx, tenant, id,
+              matchKeyConfig.getString("method"), matchKeyConfig.getJsonObject("params")))
+          .map(matchKeyMethod -> {
+            matchKeyMethods.put(id, matchKeyMethod);
+            return null;
+          });
+    }
+    return future.map(matchKeyMethods);
+  }
+
+  /**
+   * Update clusters for a set of records, one match key at a time.
+   *
+   * <p>Match values are computed for all match keys first. With lockValues, the match values
+   * are then locked before any cluster is looked up, see {@link #lockMatchValues}.
+   * @param vertx Vert.x handle
+   * @param conn connection
+   * @param payloads payload for each global identifier
+   * @param matchKeyConfigs match key configrations in use
+   * @param lockValues whether to lock match values
+   * @return async result
+   */
+  Future<Void> updateClusters(Vertx vertx, SqlConnection conn,
+      Map<UUID, JsonObject> payloads, JsonArray matchKeyConfigs, boolean lockValues) {
+
+    return getMatchKeyMethods(vertx, matchKeyConfigs, false)
+        .compose(matchKeyMethods ->
+            updateClusters(vertx, conn, payloads, matchKeyMethods, lockValues));
+  }
+
+  /**
+   * Update clusters for a set of records with given match key methods.
+   * @param vertx Vert.x handle
+   * @param conn connection
+   * @param payloads payload for each global identifier
+   * @param matchKeyMethods match key method for each match key identifier
+   * @param lockValues whether to lock match values
+   * @return async result
+   */
+  Future<Void> updateClusters(Vertx vertx, SqlConnection conn,
+      Map<UUID, JsonObject> payloads, Map<String, MatchKeyMethod> matchKeyMethods,
+      boolean lockValues) {
+
+    return getClusterBatches(vertx, matchKeyMethods, payloads)
+        .compose(clusterBatches -> lockValues
+            ? lockMatchValues(conn, clusterBatches).map(clusterBatches)
+            : Future.succeededFuture(clusterBatches))
+        .compose(clusterBatches -> {
+          Future<Void> f = Future.succeededFuture();
+          for (Map.Entry<String, ClusterBatch> entry : clusterBatches.entrySet()) {
+            f = f.compose(y -> updateClusters(conn, entry.getKey(), entry.getValue()));
+          }
+          return f;
+        });
+  }
+
+  /**
+   * Update clusters for a batch of records with set-based statements.
+   * @param conn connection
+   * @param matchKeyConfigId match key identifier
+   * @param clusterBatch records and their match values
+   * @return async result
+   */
+  Future<Void> updateClusters(SqlConnection conn, String matchKeyConfigId,
+      ClusterBatch clusterBatch) {
+
+    return lockClusters(conn, matchKeyConfigId, clusterBatch.getKeys(), new HashSet<>())
+        .compose(values -> {
+          clusterBatch.resolve(values);
+          return mergeClusters(conn, clusterBatch.getMergedClusters());
+        })
+        .compose(x -> createMetaEntries(conn, clusterBatch.getNewClusters(), matchKeyConfigId))
+        .compose(x -> updateMetaEntries(conn, clusterBatch.getFoundClusters()))
+        .compose(x -> addValuesToClusters(conn, matchKeyConfigId, clusterBatch.getNewValues()))
+        .compose(x -> upsertClusterRecords(conn, matchKeyConfigId,
+            clusterBatch.getRecordClusters()));
+  }
+
+  /**
+   * Look up clusters of match values and lock them for the rest of the transaction.
+   *
+   * <p>The match value locks do not cover the clusters that the values belong to, which
+   * another transaction may be merging. The clusters found are locked in order with the
+   * same row lock as the datestamp update, then the match values are read again, because
+   * a merge committed in the meantime may have moved them to another cluster. That cluster
+   * is locked in turn, until no new cluster is found. A lock taken in a later round may
+   * deadlock, which is retried by {@link #withIngestTransaction(Function)}.
+   * @param conn connection with transaction
+   * @param matchKeyConfigId match key identifier
+   * @param keys match values
+   * @param locked clusters locked so far
+   * @return async result with cluster identifier of each existing match value
+   */
+  Future<Map<String, UUID>> lockClusters(SqlConnection conn, String matchKeyConfigId,
+      Set<String> keys, Set<UUID> locked) {
+
+    if (keys.isEmpty()) {
+      return Future.succeededFuture(Collections.emptyMap());
     }
-    if (no == 3) {
+    return conn.preparedQuery("SELECT cluster_id, match_value FROM " + clusterValueTable
+            + " WHERE match_key_config_id = $1 AND match_value = ANY($2)")
+        .execute(Tuple.of(matchKeyConfigId, keys.toArray(new String[0])))
+        .compose(rowSet -> {
+          Map<String, UUID> values = new HashMap<>();
+          rowSet.forEach(row ->
+              values.put(row.getString("match_value"), row.getUUID("cluster_id")));
+          Set<UUID> clusters = new HashSet<>(values.values());
+          clusters.removeAll(locked);
+          if (clusters.isEmpty()) {
+            return Future.succeededFuture(values);
+          }
+          return conn.preparedQuery("SELECT cluster_id FROM " + clusterMetaTable
+                  + " WHERE cluster_id = ANY($1) ORDER BY cluster_id FOR NO KEY UPDATE")
+              .execute(Tuple.of(clusters.toArray(new UUID[0])))
+              .compose(x -> {
+                locked.addAll(clusters);
+                return lockClusters(conn, matchKeyConfigId, keys, locked);
+              });
+        });
+  }
+
+  /**
+   * Compute match values for a set of records.
+   *
+   * <p>Match key methods may be CPU heavy (JavaScript in particular), so this is done in
+   * a worker thread. Unordered, so that several batches are computed in parallel. The
+   * payload of each record is shared by all match key methods.
+   * @param vertx Vert.x handle
+   * @param matchKeyMethods match key method for each match key identifier
+   * @param payloads payload for each global identifier
+   * @return async result with records and their match values for each match key
+   */
+  static Future<Map<String, ClusterBatch>> getClusterBatches(Vertx vertx,
+      Map<String, MatchKeyMethod> matchKeyMethods, Map<UUID, JsonObject> payloads) {
+    return vertx.executeBlocking(promise -> {
+      Map<String, ClusterBatch> clusterBatches = new LinkedHashMap<>();
+      matchKeyMethods.keySet().forEach(id -> clusterBatches.put(id, new ClusterBatch()));
+      payloads.forEach((globalId, payload) -> {
+        MatchKeyPayload matchKeyPayload = new MatchKeyPayload(payload);
+        matchKeyMethods.forEach((id, matchKeyMethod) -> {
+          Set<String> keys = new HashSet<>();
+          matchKeyMethod.getKeys(matchKeyPayload, keys);
+          clusterBatches.get(id).addRecord(globalId, truncateKeys(keys));
+        });
+      });
+      promise.complete(clusterBatches);
+    }, false);
+  }
+
+  /**
+   * Lock match values for the rest of the transaction.
+   *
+   * <p>Without this, transactions adding the same new match value in parallel would fail
+   * on the unique index for match values. The transaction level advisory locks are keyed on
+   * a hash of tenant, match key and match value. All locks are taken in one statement in
+   * sorted order, so transactions waiting for each other's locks can not deadlock. The
+   * clusters of the values are locked separately, see {@link #lockClusters}.
+   * @param conn connection with transaction
+   * @param clusterBatches records and their match values for each match key
+   * @return async result
+   */
+  Future<Void> lockMatchValues(SqlConnection conn, Map<String, ClusterBatch> clusterBatches) {
+    SortedSet<Long> locks = new TreeSet<>();
+    clusterBatches.forEach((matchKeyConfigId, clusterBatch) -> {
+      long high = ((long) (tenant + "/" + matchKeyConfigId).hashCode()) << 32;
+      clusterBatch.getKeys().forEach(key -> locks.add(high | (key.hashCode() & 0xffffffffL)));
+    });
+    if (locks.isEmpty()) {
       return Future.succeededFuture();
     }
-    return conn.preparedQuery(q.toString()).execute(Tuple.from(tupleList))
+    return conn.preparedQuery("SELECT pg_advisory_xact_lock(k) FROM unnest($1::bigint[]) AS k")
+        .execute(Tuple.of(locks.toArray(new Long[0])))
         .mapEmpty();
   }
 
-  Future<UUID> createMetaEntry(SqlConnection conn, UUID clusterId, String matchKeyConfigId) {
+  /**
+   * Lock match values table for the rest of the transaction.
+   *
+   * <p>Used by long running operations instead of {@link #lockMatchValues}. It blocks other
+   * writers of match values, but not readers.
+   * @param conn connection with transaction
+   * @return async result
+   */
+  Future<Void> lockClusterValues(SqlConnection conn) {
+    return conn.query("LOCK TABLE " + clusterValueTable + " IN SHARE ROW EXCLUSIVE MODE")
+        .execute()
+        .mapEmpty();
+  }
+
+  /**
+   * Run ingest transaction; retry if it was aborted because of a deadlock.
+   *
+   * <p>Match values are locked in order (see {@link #lockMatchValues}), but transactions
+   * may still deadlock on rows of other tables in rare cases, for example with a merge of
+   * an ingest job. A transaction is attempted at most {@value #INGEST_TRANSACTION_ATTEMPTS}
+   * times, with a random delay that doubles for each attempt, so that the transactions
+   * that deadlocked are not retried at the same time.
+   * @param function function run in transaction
+   * @param <T> result type
+   * @return async result
+   */
+  <T> Future<T> withIngestTransaction(Function<SqlConnection, Future<T>> function) {
+    return withIngestTransaction(function, 1);
+  }
+
+  private <T> Future<T> withIngestTransaction(Function<SqlConnection, Future<T>> function,
+      int attempt) {
+    return pool.withTransaction(function)
+        .recover(e -> {
+          if (attempt >= INGEST_TRANSACTION_ATTEMPTS
+              || !(e instanceof PgException pgException
+              && DEADLOCK_DETECTED.equals(pgException.getCode()))) {
+            return Future.failedFuture(e);
+          }
+          long delay = ThreadLocalRandom.current()
+              .nextLong(1, (INGEST_RETRY_DELAY_MS << attempt) + 1);
+          log.warn("retrying ingest in {} ms after {}", delay, e.getMessage());
+          Promise<Void> promise = Promise.promise();
+          vertx.setTimer(delay, id -> promise.complete());
+          return promise.future().compose(x -> withIngestTransaction(function, attempt + 1));
+        });
+  }
+
+  Future<Void> createMetaEntries(SqlConnection conn, Set<UUID> clusters,
+      String matchKeyConfigId) {
+    if (clusters.isEmpty()) {
+      return Future.succeededFuture();
+    }
     return conn.preparedQuery("INSERT INTO " + clusterMetaTable
-            + " (cluster_id, datestamp, match_key_config_id) VALUES ($1, $2, $3)")
-        .execute(Tuple.of(clusterId, LocalDateTime.now(ZoneOffset.UTC), matchKeyConfigId))
-        .map(clusterId);
+            + " (cluster_id, datestamp, match_key_config_id)"
+            + " SELECT unnest($1::uuid[]), $2::timestamp, $3::varchar")
+        .execute(Tuple.of(clusters.toArray(new UUID[0]), LocalDateTime.now(ZoneOffset.UTC),
+            matchKeyConfigId))
+        .mapEmpty();
   }
 
-  Future<Void> updateMetaEntries(SqlConnection conn, Set<UUID> clusters) {
-    Iterator<UUID> iterator = clusters.iterator();
-    StringBuilder setClause = new StringBuilder("UPDATE " + clusterMetaTable
-        + " SET datestamp = $1 WHERE ");
-    List<Object> tupleList = new ArrayList<>();
-    tupleList.add(LocalDateTime.now(ZoneOffset.UTC));
-    for (int no = 2; iterator.hasNext(); no++) {
-      tupleList.add(iterator.next());
-      if (no > 2) {
-        setClause.append(" OR ");
-      }
-      setClause.append("cluster_id = $");
-      setClause.append(no);
+  Future<Void> addValuesToClusters(SqlConnection conn, String matchKeyConfigId,
+      Map<String, UUID> values) {
+    if (values.isEmpty()) {
+      return Future.succeededFuture();
     }
-    return conn.preparedQuery(setClause.toString())
-        .execute(Tuple.from(tupleList))
+    return conn.preparedQuery("INSERT INTO " + clusterValueTable
+            + " (cluster_id, match_key_config_id, match_value)"
+            + " SELECT v.cluster_id, $1::varchar, v.match_value"
+            + " FROM unnest($2::uuid[], $3::varchar[]) AS v(cluster_id, match_value)")
+        .execute(Tuple.of(matchKeyConfigId, values.values().toArray(new UUID[0]),
+            values.keySet().toArray(new String[0])))
         .mapEmpty();
   }
 
-  Future<Void> mergeClusters(SqlConnection conn, UUID clusterId, Iterator<UUID> iterator) {
-    StringBuilder setClause = new StringBuilder(" SET cluster_id = $1 WHERE ");
-    List<UUID> tupleList = new ArrayList<>();
-    tupleList.add(clusterId); // $1
-    for (int no = 2; iterator.hasNext(); no++) {
-      tupleList.add(iterator.next());
-      if (no > 2) {
-        setClause.append(" OR ");
-      }
-      setClause.append("cluster_id = $");
-      setClause.append(no);
+  Future<Void> upsertClusterRecords(SqlConnection conn, String matchKeyConfigId,
+      Map<UUID, UUID> recordClusters) {
+    if (recordClusters.isEmpty()) {
+      return Future.succeededFuture();
     }
-    return conn.preparedQuery("UPDATE " + clusterValueTable + setClause)
-        .execute(Tuple.from(tupleList))
-        .compose(x -> conn.preparedQuery("UPDATE " + clusterRecordTable + setClause)
-            .execute(Tuple.from(tupleList)))
+    return conn.preparedQuery("INSERT INTO " + clusterRecordTable
+            + " (record_id, match_key_config_id, cluster_id)"
+            + " SELECT r.record_id, $1::varchar, r.cluster_id"
+            + " FROM unnest($2::uuid[], $3::uuid[]) AS r(record_id, cluster_id)"
+            + " ON CONFLICT (record_id, match_key_config_id)"
+            + " DO UPDATE SET cluster_id = EXCLUDED.cluster_id")
+        .execute(Tuple.of(matchKeyConfigId, recordClusters.keySet().toArray(new UUID[0]),
+            recordClusters.values().toArray(new UUID[0])))
         .mapEmpty();
   }
 
@@ -459,13 +888,375 @@ public class Storage {
    * @return async result
    */
   public Future<Void> updateGlobalRecords(Vertx vertx, LargeJsonReadStream request) {
-    return pool.withConnection(this::getAvailableMatchConfigs).compose(matchKeyConfigs ->
-        new ReadStreamConsumer<JsonObject, Void>()
+    return getAvailableMatchConfigs().compose(matchKeyConfigs -> {
+      if (ingestBatchSize == 1) {
+        return new ReadStreamConsumer<JsonObject, Void>(ingestConcurrency)
             .consume(request, r ->
                 ingestGlobalRecord(
                     vertx, new SourceId(request.topLevelObject().getString("sourceId")),
                     request.topLevelObject().getInteger("sourceVersion", 1), r, matchKeyConfigs)
-                    .mapEmpty()));
+                    .mapEmpty());
+      }
+      return new ReadStreamConsumer<List<JsonObject>, Void>(ingestConcurrency)
+          .consume(new BatchReadStream<>(request, ingestBatchSize), records ->
+              ingestGlobalRecords(
+                  vertx, new SourceId(request.topLevelObject().getString("sourceId")),
+                  request.topLevelObject().getInteger("sourceVersion", 1), records,
+                  matchKeyConfigs)
+                  .mapEmpty());
+    });
+  }
+
+  /**
+   * Bulk load of global records.
+   *
+   * <p>Records are first stored in an unlogged staging table. When all records are received
+   * they are merged into global records and clusters, see
+   * {@link #mergeStagedGlobalRecords(Vertx, String, SourceId, int, JsonArray)}.
+   * @param vertx Vert.x handle
+   * @param request records
+   * @return async result
+   */
+  public Future<Void> bulkLoadGlobalRecords(Vertx vertx, LargeJsonReadStream request) {
+    String stagingTable = pool.getSchema() + ".bulk_"
+        + UUID.randomUUID().toString().replace("-", "");
+    AtomicLong seq = new AtomicLong();
+    return createStagingTable(stagingTable)
+        .compose(x -> new ReadStreamConsumer<List<JsonObject>, Void>(ingestConcurrency)
+            .consume(new BatchReadStream<>(request, ingestBatchSize), records ->
+                pool.withConnection(conn ->
+                    stageGlobalRecords(conn, stagingTable, seq, records))))
+        .compose(x -> {
+          String sourceId = request.topLevelObject().getString("sourceId");
+          if (sourceId == null) {
+            return Future.failedFuture("sourceId required");
+          }
+          int sourceVersion = request.topLevelObject().getInteger("sourceVersion", 1);
+          return getAvailableMatchConfigs().compose(matchKeyConfigs ->
+              mergeStagedGlobalRecords(vertx, stagingTable, new SourceId(sourceId),
+                  sourceVersion, matchKeyConfigs));
+        })
+        .eventually(x -> pool.query("DROP TABLE IF EXISTS " + stagingTable).execute());
+  }
+
+  Future<Void> createStagingTable(String stagingTable) {
+    return pool.query("CREATE UNLOGGED TABLE " + stagingTable
+            + "(local_id VARCHAR NOT NULL PRIMARY KEY,"
+            + " seq BIGSERIAL,"
+            + " id uuid NOT NULL,"
+            + " changed BOOLEAN NOT NULL DEFAULT FALSE,"
+            + " payload JSONB)") // payload NULL for delete
+        .execute()
+        .mapEmpty();
+  }
+
+  /**
+   * Store records in staging table.
+   *
+   * <p>If a local identifier is staged more than once, the one with the highest
+   * sequence number wins.
+   * @param conn connection
+   * @param stagingTable staging table
+   * @param seq sequence for records; null for sequence of staging table
+   * @param globalRecords global record JSON objects
+   * @return async result
+   */
+  Future<Void> stageGlobalRecords(SqlConnection conn, String stagingTable, AtomicLong seq,
+      List<JsonObject> globalRecords) {
+
+    List<Tuple> tuples = new ArrayList<>(globalRecords.size());
+    for (JsonObject globalRecord : globalRecords) {
+      String localIdentifier = globalRecord.getString("localId");
+      if (localIdentifier == null) {
+        return Future.failedFuture("localId required");
+      }
+      JsonObject payload = null;
+      if (!Boolean.TRUE.equals(globalRecord.getBoolean("delete"))) {
+        payload = globalRecord.getJsonObject("payload");
+        if (payload == null) {
+          return Future.failedFuture("payload required");
+        }
+      }
+      tuples.add(seq == null
+          ? Tuple.of(localIdentifier, UUID.randomUUID(), payload)
+          : Tuple.of(localIdentifier, UUID.randomUUID(), payload, seq.incrementAndGet()));
+    }
+    if (tuples.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    return conn.preparedQuery("INSERT INTO " + stagingTable + " AS s"
+            + (seq == null
+            ? " (local_id, id, payload) VALUES ($1, $2, $3)"
+            : " (local_id, id, payload, seq) VALUES ($1, $2, $3, $4)")
+            + " ON CONFLICT (local_id) DO UPDATE"
+            + " SET seq = EXCLUDED.seq, payload = EXCLUDED.payload"
+            + " WHERE s.seq < EXCLUDED.seq")
+        .executeBatch(tuples)
+        .mapEmpty();
+  }
+
+  /**
+   * SQL condition for ingest job that has not timed out.
+   * @return condition with job identifier and current time as parameters
+   */
+  static String activeIngestJob() {
+    return " WHERE id = $1"
+        + " AND (last_active + auto_rollback_timeout * interval '1 second' < $2) IS NOT TRUE";
+  }
+
+  /**
+   * Select ingest job that has not timed out, locking it.
+   * @param lock row lock clause; FOR SHARE to add records, FOR UPDATE to finish
+   * @return SQL with job identifier and current time as parameters
+   */
+  String selectActiveIngestJob(String lock) {
+    return "SELECT * FROM " + ingestJobTable + activeIngestJob() + " " + lock;
+  }
+
+  String getIngestJobStagingTable(UUID jobId) {
+    return pool.getSchema() + ".ingest_job_" + jobId.toString().replace("-", "");
+  }
+
+  static JsonObject ingestJobJson(Row row) {
+    JsonObject job = new JsonObject()
+        .put("id", row.getUUID("id").toString())
+        .put("sourceId", row.getString("source_id"))
+        .put("sourceVersion", row.getInteger("source_version"))
+        .put("created", row.getLocalDateTime("created").atZone(ZoneOffset.UTC)
+            .format(DateTimeFormatter.ISO_INSTANT));
+    Integer autoRollBackTimeout = row.getInteger("auto_rollback_timeout");
+    if (autoRollBackTimeout != null) {
+      job.put("autoRollBackTimeout", autoRollBackTimeout);
+    }
+    return job;
+  }
+
+  /**
+   * Create ingest job.
+   * @param sourceId source identifier
+   * @param sourceVersion source version
+   * @param autoRollBackTimeout seconds of inactivity before job is rolled back; null for none
+   * @return async result with job
+   */
+  public Future<JsonObject> createIngestJob(SourceId sourceId, int sourceVersion,
+      Integer autoRollBackTimeout) {
+
+    UUID id = UUID.randomUUID();
+    LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+    return expireIngestJobs()
+        .compose(x -> createStagingTable(getIngestJobStagingTable(id)))
+        .compose(x -> pool.preparedQuery("INSERT INTO " + ingestJobTable
+                + " (id, source_id, source_version, auto_rollback_timeout, created, last_active)"
+                + " VALUES ($1, $2, $3, $4, $5, $5) RETURNING *")
+            .execute(Tuple.of(id, sourceId.toString(), sourceVersion, autoRollBackTimeout, now)))
+        .map(rowSet -> ingestJobJson(rowSet.iterator().next()));
+  }
+
+  /**
+   * Get ingest job.
+   * @param id job identifier
+   * @return async result with job; null if not found
+   */
+  public Future<JsonObject> getIngestJob(UUID id) {
+    return pool.withTransaction(conn -> conn.preparedQuery(selectActiveIngestJob("FOR SHARE"))
+        .execute(Tuple.of(id, LocalDateTime.now(ZoneOffset.UTC)))
+        .compose(rowSet -> {
+          RowIterator<Row> iterator = rowSet.iterator();
+          if (!iterator.hasNext()) {
+            return Future.succeededFuture(null);
+          }
+          JsonObject job = ingestJobJson(iterator.next());
+          return conn.query("SELECT COUNT(*) FROM " + getIngestJobStagingTable(id))
+              .execute()
+              .map(res -> job.put("numberOfRecords", res.iterator().next().getLong(0)));
+        }));
+  }
+
+  /**
+   * Add records to ingest job.
+   *
+   * <p>Records are only staged; global records and clusters are not updated until the job
+   * is committed. The job is share locked while records are staged, so that records can
+   * be added concurrently, but the job cannot be finished or expired meanwhile.
+   * @param id job identifier
+   * @param globalRecords global record JSON objects
+   * @return async result with FALSE if job is not found
+   */
+  public Future<Boolean> addIngestJobRecords(UUID id, JsonArray globalRecords) {
+    LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+    // not part of the transaction, so that concurrent requests do not wait for each other
+    return pool.preparedQuery("UPDATE " + ingestJobTable
+            + " SET last_active = $2" + activeIngestJob() + " AND last_active < $2")
+        .execute(Tuple.of(id, now))
+        .compose(x -> pool.withTransaction(conn ->
+            conn.preparedQuery(selectActiveIngestJob("FOR SHARE"))
+                .execute(Tuple.of(id, now))
+                .compose(rowSet -> {
+                  if (!rowSet.iterator().hasNext()) {
+                    return Future.succeededFuture(Boolean.FALSE);
+                  }
+                  List<JsonObject> records = new ArrayList<>(globalRecords.size());
+                  for (int i = 0; i < globalRecords.size(); i++) {
+                    records.add(globalRecords.getJsonObject(i));
+                  }
+                  return stageGlobalRecords(conn, getIngestJobStagingTable(id), null, records)
+                      .map(Boolean.TRUE);
+                })));
+  }
+
+  /**
+   * Finish ingest job.
+   *
+   * <p>The job is locked first, which waits for records being added and makes
+   * further additions fail with job not found. The job is kept locked while staged
+   * records are merged in transactions of their own. It is removed when the merge is
+   * done, so that a commit that fails can be repeated.
+   * @param vertx Vert.x handle
+   * @param id job identifier
+   * @param commit true: staged records are merged; false: staged records are discarded
+   * @return async result with FALSE if job is not found
+   */
+  public Future<Boolean> finishIngestJob(Vertx vertx, UUID id, boolean commit) {
+    String stagingTable = getIngestJobStagingTable(id);
+    return getAvailableMatchConfigs()
+        .compose(matchKeyConfigs -> pool.withTransaction(conn ->
+            conn.preparedQuery(selectActiveIngestJob("FOR UPDATE"))
+                .execute(Tuple.of(id, LocalDateTime.now(ZoneOffset.UTC)))
+                .compose(rowSet -> {
+                  RowIterator<Row> iterator = rowSet.iterator();
+                  if (!iterator.hasNext()) {
+                    return Future.succeededFuture(Boolean.FALSE);
+                  }
+                  Row row = iterator.next();
+                  Future<Void> future = commit
+                      ? mergeStagedGlobalRecords(vertx, stagingTable,
+                          new SourceId(row.getString("source_id")),
+                          row.getInteger("source_version"), matchKeyConfigs)
+                      : Future.succeededFuture();
+                  return future
+                      .compose(y -> conn.preparedQuery("DELETE FROM " + ingestJobTable
+                              + " WHERE id = $1")
+                          .execute(Tuple.of(id)))
+                      .compose(y -> conn.query("DROP TABLE " + stagingTable).execute())
+                      .map(Boolean.TRUE);
+                })));
+  }
+
+  /**
+   * Roll back ingest jobs that have been inactive longer than their timeout.
+   *
+   * <p>Called when a job is created. Until then, a job that has timed out is not found
+   * by the other job operations.
+   * @return async result
+   */
+  Future<Void> expireIngestJobs() {
+    return pool.preparedQuery("SELECT id FROM " + ingestJobTable
+            + " WHERE last_active + auto_rollback_timeout * interval '1 second' < $1")
+        .execute(Tuple.of(LocalDateTime.now(ZoneOffset.UTC)))
+        .compose(rowSet -> {
+          Future<Void> future = Future.succeededFuture();
+          for (Row row : rowSet) {
+            UUID id = row.getUUID("id");
+            log.info("ingest job {} rolled back after timeout", id);
+            future = future.compose(x -> pool.preparedQuery("DELETE FROM " + ingestJobTable
+                    + " WHERE id = $1")
+                .execute(Tuple.of(id))
+                .compose(y -> pool.query("DROP TABLE IF EXISTS "
+                    + getIngestJobStagingTable(id)).execute())
+                .mapEmpty());
+          }
+          return future;
+        });
+  }
+
+  /**
+   * Merge staged records into global records and update clusters.
+   *
+   * <p>Staged records are merged in chunks of {@link #mergeChunkSize} local identifiers,
+   * each in a transaction of its own, so that ingest of other sources is blocked by
+   * {@link #lockClusterValues} for one chunk at a time only. Merging a chunk again has
+   * no further effect, so a failed merge may be repeated.
+   * @param vertx Vert.x handle
+   * @param stagingTable table with staged records
+   * @param sourceId source identifier
+   * @param sourceVersion source version
+   * @param matchKeyConfigs match key configrations in use
+   * @return async result
+   */
+  Future<Void> mergeStagedGlobalRecords(Vertx vertx, String stagingTable,
+      SourceId sourceId, int sourceVersion, JsonArray matchKeyConfigs) {
+    return mergeStagedGlobalRecords(vertx, stagingTable, sourceId, sourceVersion,
+        matchKeyConfigs, null);
+  }
+
+  private Future<Void> mergeStagedGlobalRecords(Vertx vertx, String stagingTable,
+      SourceId sourceId, int sourceVersion, JsonArray matchKeyConfigs, String after) {
+
+    String q = "SELECT local_id FROM " + stagingTable
+        + (after == null ? "" : " WHERE local_id > $2") + " ORDER BY local_id LIMIT $1";
+    return pool.preparedQuery(q)
+        .execute(after == null ? Tuple.of(mergeChunkSize) : Tuple.of(mergeChunkSize, after))
+        .compose(rowSet -> {
+          List<String> localIds = new ArrayList<>(rowSet.size());
+          rowSet.forEach(row -> localIds.add(row.getString("local_id")));
+          if (localIds.isEmpty()) {
+            return Future.succeededFuture();
+          }
+          return withIngestTransaction(conn -> mergeStagedChunk(vertx, conn, stagingTable,
+              sourceId, sourceVersion, matchKeyConfigs, localIds.toArray(new String[0])))
+              .compose(x -> localIds.size() < mergeChunkSize
+                  ? Future.succeededFuture()
+                  : mergeStagedGlobalRecords(vertx, stagingTable, sourceId, sourceVersion,
+                      matchKeyConfigs, localIds.get(localIds.size() - 1)));
+        });
+  }
+
+  Future<Void> mergeStagedChunk(Vertx vertx, SqlConnection conn, String stagingTable,
+      SourceId sourceId, int sourceVersion, JsonArray matchKeyConfigs, String[] localIds) {
+
+    Tuple source = Tuple.of(sourceId.toString(), sourceVersion, localIds);
+    return lockClusterValues(conn)
+        .compose(x -> conn.preparedQuery("UPDATE " + clusterMetaTable + " AS m"
+                + " SET datestamp = $4"
+                + " FROM " + globalRecordTable + " AS g, " + clusterRecordTable + " AS r, "
+                + stagingTable + " AS s"
+                + " WHERE m.cluster_id = r.cluster_id AND r.record_id = g.id"
+                + " AND g.local_id = s.local_id AND s.payload IS NULL"
+                + " AND g.source_id = $1 AND g.source_version = $2"
+                + " AND s.local_id = ANY($3)")
+            .execute(Tuple.of(sourceId.toString(), sourceVersion, localIds,
+                LocalDateTime.now(ZoneOffset.UTC))))
+        .compose(x -> conn.preparedQuery("DELETE FROM " + globalRecordTable + " AS g"
+                + " USING " + stagingTable + " AS s"
+                + " WHERE g.local_id = s.local_id AND s.payload IS NULL"
+                + " AND g.source_id = $1 AND g.source_version = $2"
+                + " AND s.local_id = ANY($3)")
+            .execute(source))
+        .compose(x -> conn.preparedQuery("WITH u AS (INSERT INTO " + globalRecordTable
+                + " (id, local_id, source_id, source_version, payload, payload_hash)"
+                + " SELECT id, local_id, $1::varchar, $2::integer, payload, "
+                + payloadHash("payload") + " FROM " + stagingTable
+                + " WHERE payload IS NOT NULL AND local_id = ANY($3)"
+                + UPSERT_CHANGED_PAYLOAD
+                + " RETURNING local_id)"
+                + " UPDATE " + stagingTable + " AS s SET changed = TRUE"
+                + " FROM u WHERE s.local_id = u.local_id")
+            .execute(source))
+        .compose(x -> conn.prepare("SELECT g.id, g.payload FROM " + globalRecordTable + " AS g"
+            + " JOIN " + stagingTable + " AS s ON g.local_id = s.local_id"
+            + " WHERE s.changed AND g.source_id = $1 AND g.source_version = $2"
+            + " AND s.local_id = ANY($3)"))
+        .compose(pq -> {
+          RowStream<Row> stream = pq.createStream(ingestBatchSize, source);
+          // one batch at a time as all share the same connection
+          return new ReadStreamConsumer<List<Row>, Void>(1)
+              .consume(new BatchReadStream<>(stream, ingestBatchSize), rows -> {
+                Map<UUID, JsonObject> payloads = new LinkedHashMap<>();
+                rows.forEach(row ->
+                    payloads.put(row.getUUID("id"), row.getJsonObject("payload")));
+                return updateClusters(vertx, conn, payloads, matchKeyConfigs, false);
+              });
+        });
   }
 
   /**
@@ -474,7 +1265,7 @@ public class Storage {
    * @return async result with array of configurations
    */
   public Future<JsonArray> getAvailableMatchConfigs(SqlConnection conn) {
-    return conn.query("SELECT * FROM " + matchKeyConfigTable)
+    return conn.query("SELECT * FROM " + matchKeyConfigTable + " ORDER BY id")
         .execute()
         .map(res -> {
           JsonArray matchConfigs = new JsonArray();
@@ -489,8 +1280,13 @@ public class Storage {
         });
   }
 
+  /**
+   * Get available match key configurations, cached.
+   * @return async result with array of configurations, ordered by identifier
+   */
   public Future<JsonArray> getAvailableMatchConfigs() {
-    return pool.withConnection(this::getAvailableMatchConfigs);
+    return MatchKeyConfigCache.get(vertx, tenant,
+        () -> pool.withConnection(this::getAvailableMatchConfigs));
   }
 
   /**
@@ -526,12 +1322,13 @@ public class Storage {
    * @return async result
    */
   public Future<Void> getGlobalRecords(RoutingContext ctx, String sqlWhere, String sqlOrderBy) {
-    String from = globalRecordTable;
-    if (sqlWhere != null) {
-      from = from + " WHERE " + sqlWhere;
-    }
-    return streamResult(ctx, null, from, sqlOrderBy, "items",
-        row -> Future.succeededFuture(ClusterBuilder.encodeRecord(row)));
+    return streamResult(ctx, null, null, ClusterBuilder.RAW_RECORD_COLUMNS, Tuple.tuple(),
+        List.of(globalRecordTable), sqlWhere, "id", Collections.emptyList(), sqlOrderBy, "items",
+        rows -> {
+          List<String> records = new ArrayList<>(rows.size());
+          rows.forEach(row -> records.add(ClusterBuilder.encodeRecordRaw(row)));
+          return Future.succeededFuture(records);
+        });
   }
 
   /**
@@ -544,28 +1341,59 @@ public class Storage {
   }
 
   Future<JsonObject> getClusterById(SqlConnection connection, UUID clusterId) {
-    // get all records part of cluster and join with cluster_meta to get datestamp
-    return connection.preparedQuery("SELECT * FROM " + globalRecordTable
+    return getClustersByIds(connection, List.of(clusterId)).map(clusters -> clusters.get(0));
+  }
+
+  /**
+   * Get clusters with two queries for all of them.
+   * @param connection connection
+   * @param clusterIds cluster identifiers
+   * @return cluster objects in the order of clusterIds; a cluster that is not found has no
+   *     records
+   */
+  Future<List<JsonObject>> getClustersByIds(SqlConnection connection, List<UUID> clusterIds) {
+    Map<UUID, ClusterBuilder> builders = new LinkedHashMap<>();
+    Map<UUID, JsonArray> records = new HashMap<>();
+    Map<UUID, JsonArray> matchValues = new HashMap<>();
+    clusterIds.forEach(id -> {
+      builders.put(id, new ClusterBuilder(id));
+      records.put(id, new JsonArray());
+      matchValues.put(id, new JsonArray());
+    });
+    Tuple tuple = Tuple.of(clusterIds.toArray(new UUID[0]));
+    // get all records part of clusters and join with cluster_meta to get datestamp
+    return connection.preparedQuery("SELECT " + globalRecordTable + ".*, "
+            + clusterRecordTable + ".cluster_id, " + clusterMetaTable + ".datestamp"
+            + " FROM " + globalRecordTable
             + " LEFT JOIN " + clusterRecordTable + " ON id = record_id"
             + " LEFT JOIN " + clusterMetaTable + " ON "
             + clusterMetaTable + ".cluster_id = " + clusterRecordTable + ".cluster_id"
-            + " WHERE " + clusterRecordTable + ".cluster_id = $1")
-        .execute(Tuple.of(clusterId))
-        .map(rowSet -> {
-          ClusterBuilder cb = new ClusterBuilder(clusterId);
-          RowIterator<Row> iterator = rowSet.iterator();
-          if (iterator.hasNext()) {
-            Row row = iterator.next();
-            cb.datestamp(row.getLocalDateTime("datestamp"));
-          }
-          cb.records(rowSet);
-          return cb;
+            + " WHERE " + clusterRecordTable + ".cluster_id = ANY($1)")
+        .execute(tuple)
+        .compose(rowSet -> {
+          rowSet.forEach(row -> {
+            UUID clusterId = row.getUUID("cluster_id");
+            JsonArray clusterRecords = records.get(clusterId);
+            LocalDateTime datestamp = row.getLocalDateTime("datestamp");
+            if (clusterRecords.isEmpty() && datestamp != null) {
+              builders.get(clusterId).datestamp(datestamp);
+            }
+            clusterRecords.add(ClusterBuilder.encodeRecord(row));
+          });
+          return connection.preparedQuery("SELECT cluster_id, match_value FROM "
+                  + clusterValueTable + " WHERE cluster_id = ANY($1)")
+              .execute(tuple);
         })
-        .compose(cb -> connection.preparedQuery("SELECT * FROM " + clusterValueTable
-              + " WHERE cluster_id = $1")
-            .execute(Tuple.of(clusterId))
-            .map(cb::matchValues))
-        .map(ClusterBuilder::build);
+        .map(rowSet -> {
+          rowSet.forEach(row ->
+              matchValues.get(row.getUUID("cluster_id")).add(row.getString("match_value")));
+          List<JsonObject> clusters = new ArrayList<>(builders.size());
+          builders.forEach((id, cb) -> clusters.add(cb
+              .records(records.get(id))
+              .matchValues(matchValues.get(id))
+              .build()));
+          return clusters;
+        });
   }
 
   /**
@@ -588,31 +1416,36 @@ public class Storage {
     }
     String from = clusterRecordTable
         + joinClusterValue
-        + joinGlobal
-        + " WHERE " + clusterRecordTable + ".match_key_config_id = $1";
+        + joinGlobal;
+    String where = clusterRecordTable + ".match_key_config_id = $1";
     if (sqlWhere != null) {
-      from = from + " AND (" + sqlWhere + ")";
+      where = where + " AND (" + sqlWhere + ")";
     }
+    // clusters of a fetched chunk of rows are retrieved together
     return streamResult(ctx, clusterRecordTable + ".cluster_id", Tuple.of(matchKeyId),
-        from, sqlOrderBy, "items",
-        row -> getClusterById(row.getUUID("cluster_id")));
+        from, where, clusterRecordTable + ".cluster_id", sqlOrderBy, "items",
+        rows -> {
+          List<UUID> clusterIds = new ArrayList<>(rows.size());
+          rows.forEach(row -> clusterIds.add(row.getUUID("cluster_id")));
+          return pool.withConnection(conn -> getClustersByIds(conn, clusterIds));
+        });
   }
 
   /**
    * Get global record given global identifier.
    * @param id global identifier
-   * @return global record response as JSON object
+   * @return global record response as encoded JSON; null if not found
    */
-  public Future<JsonObject> getGlobalRecord(String id) {
-    return pool.preparedQuery(
-            "SELECT * FROM " + globalRecordTable + " WHERE id = $1")
+  public Future<String> getGlobalRecord(String id) {
+    return pool.preparedQuery("SELECT " + ClusterBuilder.RAW_RECORD_COLUMNS
+            + " FROM " + globalRecordTable + " WHERE id = $1")
         .execute(Tuple.of(id))
         .map(res -> {
           RowIterator<Row> iterator = res.iterator();
           if (!iterator.hasNext()) {
             return null;
           }
-          return ClusterBuilder.encodeRecord(iterator.next());
+          return ClusterBuilder.encodeRecordRaw(iterator.next());
         });
   }
 
@@ -627,11 +1460,11 @@ public class Storage {
   public Future<Void> insertMatchKeyConfig(String id, String method, JsonObject params,
       String update) {
 
-    return pool.preparedQuery(
-        "INSERT INTO " + matchKeyConfigTable + " (id, method, params, update)"
-            + " VALUES ($1, $2, $3, $4)")
+    return pool.withTransaction(conn -> conn.preparedQuery(
+            "INSERT INTO " + matchKeyConfigTable + " (id, method, params, update)"
+                + " VALUES ($1, $2, $3, $4)")
         .execute(Tuple.of(id, method, params, update))
-        .mapEmpty();
+        .compose(x -> MatchKeyConfigCache.notify(conn, tenant)));
   }
 
   /**
@@ -645,11 +1478,11 @@ public class Storage {
   public Future<Boolean> updateMatchKeyConfig(String id, String method, JsonObject params,
       String update) {
 
-    return pool.preparedQuery(
+    return pool.withTransaction(conn -> conn.preparedQuery(
             "UPDATE " + matchKeyConfigTable
                 + " SET method = $2, params = $3, update = $4 WHERE id = $1")
         .execute(Tuple.of(id, method, params, update))
-        .map(res -> res.rowCount() > 0);
+        .compose(res -> MatchKeyConfigCache.notify(conn, tenant).map(res.rowCount() > 0)));
   }
 
   /**
@@ -658,26 +1491,15 @@ public class Storage {
    * @return JSON object if found; null if not found
    */
   public Future<JsonObject> selectMatchKeyConfig(String id) {
-    String q = "SELECT * FROM " + matchKeyConfigTable;
-    List<String> tupleList = new ArrayList<>();
-    if (id != null) {
-      q = q + " WHERE id = $1";
-      tupleList.add(id);
-    }
-    return pool.preparedQuery(q)
-        .execute(Tuple.from(tupleList))
-        .map(res -> {
-          RowIterator<Row> iterator = res.iterator();
-          if (!iterator.hasNext()) {
-            return null;
-          }
-          Row row = iterator.next();
-          return new JsonObject()
-              .put("id", row.getString("id"))
-              .put("method", row.getString("method"))
-              .put("params", row.getJsonObject("params"))
-              .put("update", row.getString("update"));
-        });
+    return getAvailableMatchConfigs().map(matchKeyConfigs -> {
+      for (int i = 0; i < matchKeyConfigs.size(); i++) {
+        JsonObject matchKeyConfig = matchKeyConfigs.getJsonObject(i);
+        if (id == null || id.equals(matchKeyConfig.getString("id"))) {
+          return matchKeyConfig;
+        }
+      }
+      return null;
+    });
   }
 
   /**
@@ -686,11 +1508,15 @@ public class Storage {
    * @return TRUE if deleted; FALSE if not found
    */
   public Future<Boolean> deleteMatchKeyConfig(String id) {
-    return pool.withConnection(connection ->
+    return pool.withTransaction(connection ->
         connection.preparedQuery(
-                "DELETE FROM " + matchKeyConfigTable + " WHERE id = $1")
+                "DELETE FROM " + initializeJobTable + " WHERE $1 = ANY(match_key_config_ids)")
             .execute(Tuple.of(id))
-            .map(res -> res.rowCount() > 0));
+            .compose(x -> connection.preparedQuery(
+                    "DELETE FROM " + matchKeyConfigTable + " WHERE id = $1")
+                .execute(Tuple.of(id)))
+            .compose(res -> MatchKeyConfigCache.notify(connection, tenant)
+                .map(res.rowCount() > 0)));
   }
 
   /**
@@ -701,11 +1527,7 @@ public class Storage {
    * @return async result
    */
   public Future<Void> getMatchKeyConfigs(RoutingContext ctx, String sqlWhere, String sqlOrderBy) {
-    String from = matchKeyConfigTable;
-    if (sqlWhere != null) {
-      from = from + " WHERE " + sqlWhere;
-    }
-    return streamResult(ctx, null, from, sqlOrderBy, "matchKeys",
+    return streamResult(ctx, matchKeyConfigTable, sqlWhere, "id", sqlOrderBy, "matchKeys",
         row -> Future.succeededFuture(new JsonObject()
             .put("id", row.getString("id"))
             .put("method", row.getString("method"))
@@ -714,149 +1536,148 @@ public class Storage {
         ));
   }
 
-  Future<JsonObject> recalculateMatchKeyValueTable(SqlConnection connection, MatchKeyMethod method,
-      String matchKeyConfigId) {
+  /**
+   * Get configurations of match keys.
+   * @param ids match key identifiers
+   * @return async result with configurations; null if a match key is not found
+   */
+  Future<JsonArray> selectMatchKeyConfigs(Collection<String> ids) {
+    return getAvailableMatchConfigs().map(matchKeyConfigs -> {
+      JsonArray selected = new JsonArray();
+      for (String id : ids) {
+        for (int i = 0; i < matchKeyConfigs.size(); i++) {
+          if (id.equals(matchKeyConfigs.getJsonObject(i).getString("id"))) {
+            selected.add(matchKeyConfigs.getJsonObject(i));
+          }
+        }
+      }
+      return selected.size() < ids.size() ? null : selected;
+    });
+  }
 
-    String query = "SELECT * FROM " + globalRecordTable;
-    AtomicInteger totalRecords = new AtomicInteger();
-    return connection.prepare(query).compose(pq ->
-        connection.begin().compose(tx -> {
-          RowStream<Row> stream = pq.createStream(sqlStreamFetchSize);
-          Promise<JsonObject> promise = Promise.promise();
-          stream.handler(row -> {
-            stream.pause();
-            totalRecords.incrementAndGet();
-
-            UUID globalId = row.getUUID("id");
-            Set<String> keys = new HashSet<>();
-            method.getKeys(row.getJsonObject("payload"), keys);
-            updateMatchKeyValues(connection, globalId, matchKeyConfigId, keys)
-                .onFailure(e -> log.error(e.getMessage(), e))
-                .onComplete(e -> stream.resume());
-          });
-          stream.endHandler(end -> {
-            tx.commit();
-            promise.complete(new JsonObject().put("totalRecords", totalRecords.get()));
-          });
-          stream.exceptionHandler(e -> {
-            log.error(e.getMessage(), e);
-            tx.commit();
-            promise.fail(e);
-          });
-          return promise.future();
-        })
-    );
+  /**
+   * Start initialize of match keys (populate clusters) as a job.
+   * @param vertx Vert.x handle
+   * @param ids match key identifiers
+   * @return async result with job identifier; null if a match key is not found
+   */
+  public Future<UUID> startInitializeMatchKeys(Vertx vertx, Collection<String> ids) {
+    return selectMatchKeyConfigs(ids).compose(selected -> selected == null
+        ? Future.succeededFuture()
+        : MatchKeyInitializeJob.start(vertx, this, selected));
+  }
+
+  /**
+   * Rebuild clusters of match keys from scratch, computing them in memory.
+   * @param vertx Vert.x handle
+   * @param ids match key identifiers
+   * @return async result with statistics; null if a match key is not found
+   */
+  public Future<JsonObject> rebuildMatchKeys(Vertx vertx, Collection<String> ids) {
+    return selectMatchKeyConfigs(ids).compose(selected -> selected == null
+        ? Future.succeededFuture()
+        : MatchKeyRebuild.run(vertx, this, selected));
+  }
+
+  /**
+   * Initialize match keys (populate clusters) in one pass and wait for completion.
+   * @param vertx Vert.x handle
+   * @param ids match key identifiers (user specified)
+   * @return statistics; null if a match key is not found
+   */
+  public Future<JsonObject> initializeMatchKeys(Vertx vertx, Collection<String> ids) {
+    return startInitializeMatchKeys(vertx, ids).compose(jobId -> {
+      if (jobId == null) {
+        return Future.succeededFuture();
+      }
+      Future<JsonObject> result = MatchKeyInitializeJob.getResult(jobId);
+      if (result == null) {
+        return Future.failedFuture("Initialize of " + String.join(", ", ids)
+            + " is already running in another instance");
+      }
+      return result;
+    });
   }
 
   /**
-   * Initialize match key (populate clusters).
+   * Initialize match key (populate clusters) and wait for completion.
    * @param vertx Vert.x handle
    * @param id match key id (user specified)
-   * @return statistics
+   * @return statistics; null if match key is not found
    */
   public Future<JsonObject> initializeMatchKey(Vertx vertx, String id) {
-    return pool.withConnection(connection ->
-        connection.preparedQuery(
-                "SELECT * FROM " + matchKeyConfigTable + " WHERE id = $1")
-            .execute(Tuple.of(id))
-            .compose(res -> {
-              RowIterator<Row> iterator = res.iterator();
-              if (!iterator.hasNext()) {
-                return Future.succeededFuture();
-              }
-              Row row = iterator.next();
-              String method = row.getString("method");
-              JsonObject params = row.getJsonObject("params");
-              return MatchKeyMethod.get(vertx, tenant, id, method, params).compose(matchKeyMethod ->
-                  recalculateMatchKeyValueTable(connection, matchKeyMethod, id));
-            })
-    );
-  }
-
-  class StatsTrack {
-    UUID clusterId;
-    int clustersTotal;
-    final Set<String> values = new HashSet<>();
-    final Set<UUID> recordIds = new HashSet<>();
-    final Map<Integer, Integer> matchValuesPerCluster = new HashMap<>();
-    final Map<Integer, Integer> recordsPerCluster = new HashMap<>();
-    final Map<Integer, JsonArray> recordsPerClusterSample = new HashMap<>();
-
-    void newCluster() {
-      if (clusterId != null) {
-        matchValuesPerCluster.merge(values.size(), 1, (x, y) -> x + y);
-        int size = recordIds.size();
-        recordsPerCluster.merge(size, 1, (x, y) -> x + y);
-        JsonArray samples = recordsPerClusterSample.computeIfAbsent(size,
-            x -> new JsonArray());
-        if (samples.size() < 3) {
-          samples.add(clusterId.toString());
-        }
-      }
-    }
+    return initializeMatchKeys(vertx, List.of(id));
+  }
+
+  /**
+   * Get status of initialize of match key.
+   * @param id match key id (user specified)
+   * @return async result with status; null if never initialized
+   */
+  public Future<JsonObject> getInitializeMatchKeyStatus(String id) {
+    return MatchKeyInitializeJob.getStatus(this, id);
+  }
+
+  /**
+   * Get status of initialize job.
+   * @param jobId job identifier
+   * @return async result with status; null if job is not found
+   */
+  public Future<JsonObject> getInitializeJobStatus(UUID jobId) {
+    return MatchKeyInitializeJob.getJobStatus(this, jobId);
   }
 
   /**
    * get match key statistics.
+   *
+   * <p>The histograms are computed by the database: records and match values are counted
+   * for each cluster, then clusters are counted for each of those sizes. Samples are the
+   * first three cluster identifiers of each size.
    * @param id match key id (user specified)
    * @return statistics
    */
   public Future<JsonObject> statsMatchKey(String id) {
-    String qry = "SELECT * FROM "
-        + clusterRecordTable + " LEFT JOIN " + clusterValueTable + " ON "
-        + clusterValueTable + ".cluster_id = " + clusterRecordTable + ".cluster_id"
-        + " WHERE " + clusterRecordTable + ".match_key_config_id = $1"
-        + " ORDER BY " + clusterValueTable + ".cluster_id";
-
-    Tuple tuple = Tuple.of(id);
-    return pool.withConnection(connection ->
-        connection.prepare(qry).compose(pq ->
-            connection.begin().compose(tx -> {
-              StatsTrack st = new StatsTrack();
-              Promise<JsonObject> promise = Promise.promise();
-              RowStream<Row> stream = pq.createStream(sqlStreamFetchSize, tuple);
-              stream.handler(row -> {
-                UUID clusterId = row.getUUID("cluster_id");
-                if (!clusterId.equals(st.clusterId)) {
-                  st.newCluster();
-                  st.clustersTotal++;
-                  st.values.clear();
-                  st.recordIds.clear();
-                  st.clusterId = clusterId;
-                }
-                String v = row.getString("match_value");
-                if (v != null) {
-                  st.values.add(v);
-                }
-                st.recordIds.add(row.getUUID("record_id"));
-                log.debug("row = {}", row::deepToString);
-              });
-              stream.endHandler(end -> {
-                st.newCluster();
-                JsonObject matchValuesPer = new JsonObject();
-                st.matchValuesPerCluster.forEach((k, v) ->
-                    matchValuesPer.put(Integer.toString(k), v));
-                JsonObject recordsPer = new JsonObject();
-                AtomicInteger totalRecs = new AtomicInteger();
-                st.recordsPerCluster.forEach((k, v) -> {
-                  recordsPer.put(Integer.toString(k), v);
-                  totalRecs.addAndGet(k * v);
-                });
-                JsonObject clusterSamplePer = new JsonObject();
-                st.recordsPerClusterSample.forEach((k, v) ->
-                    clusterSamplePer.put(Integer.toString(k), v));
-                promise.complete(new JsonObject()
-                    .put("recordsTotal", totalRecs.get())
-                    .put("clustersTotal", st.clustersTotal)
-                    .put("matchValuesPerCluster", matchValuesPer)
-                    .put("recordsPerCluster", recordsPer)
-                    .put("recordsPerClusterSample", clusterSamplePer)
-                );
-              });
-              return promise.future();
-            })
-        )
-    );
+    String qry = "WITH r AS (SELECT cluster_id, count(*) AS records FROM " + clusterRecordTable
+        + " WHERE match_key_config_id = $1 GROUP BY cluster_id),"
+        + " v AS (SELECT cluster_id, count(*) AS match_values FROM " + clusterValueTable
+        + " WHERE match_key_config_id = $1 GROUP BY cluster_id),"
+        + " c AS (SELECT r.cluster_id, r.records, coalesce(v.match_values, 0) AS match_values,"
+        + " row_number() OVER (PARTITION BY r.records ORDER BY r.cluster_id) AS n"
+        + " FROM r LEFT JOIN v ON v.cluster_id = r.cluster_id)"
+        + " SELECT GROUPING(records) AS by_values, records, match_values,"
+        + " count(*) AS clusters,"
+        + " array_agg(cluster_id ORDER BY cluster_id) FILTER (WHERE n <= 3) AS samples"
+        + " FROM c GROUP BY GROUPING SETS ((records), (match_values))";
+
+    return pool.preparedQuery(qry).execute(Tuple.of(id)).map(rowSet -> {
+      long recordsTotal = 0;
+      long clustersTotal = 0;
+      JsonObject matchValuesPer = new JsonObject();
+      JsonObject recordsPer = new JsonObject();
+      JsonObject clusterSamplePer = new JsonObject();
+      for (Row row : rowSet) {
+        long clusters = row.getLong("clusters");
+        if (row.getInteger("by_values") == 1) {
+          matchValuesPer.put(Long.toString(row.getLong("match_values")), clusters);
+          continue;
+        }
+        long records = row.getLong("records");
+        recordsTotal += records * clusters;
+        clustersTotal += clusters;
+        recordsPer.put(Long.toString(records), clusters);
+        JsonArray samples = new JsonArray();
+        for (UUID sample : row.getArrayOfUUIDs("samples")) {
+          samples.add(sample.toString());
+        }
+        clusterSamplePer.put(Long.toString(records), samples);
+      }
+      return new JsonObject()
+          .put("recordsTotal", recordsTotal)
+          .put("clustersTotal", clustersTotal)
+          .put("matchValuesPerCluster", matchValuesPer)
+          .put("recordsPerCluster", recordsPer)
+          .put("recordsPerClusterSample", clusterSamplePer);
+    });
   }
 
   /**
@@ -933,11 +1754,7 @@ public class Storage {
    */
   public Future<Void> selectCodeModuleEntities(RoutingContext ctx,
       String sqlWhere, String sqlOrderBy) {
-    String from = moduleTable;
-    if (sqlWhere != null) {
-      from = from + " WHERE " + sqlWhere;
-    }
-    return streamResult(ctx, null, from, sqlOrderBy, "modules",
+    return streamResult(ctx, moduleTable, sqlWhere, "id", sqlOrderBy, "modules",
         row -> Future.succeededFuture(CodeModuleEntity.CodeModuleBuilder.asJson(row)));
   }
 
@@ -998,15 +1815,14 @@ public class Storage {
     return n;
   }
 
-  static void resultFooter(RoutingContext ctx, RowSet<Row> rowSet, List<String[]> facets,
-      String diagnostic) {
+  static void resultFooter(RoutingContext ctx, ResultCount resultCount, List<String[]> facets,
+      String diagnostic, Keyset keyset) {
 
     JsonObject resultInfo = new JsonObject();
     JsonArray facetArray = new JsonArray();
-    if (rowSet != null) {
+    if (resultCount != null) {
       int pos = 0;
-      Row row = rowSet.iterator().next();
-      int count = row.getInteger(pos);
+      int count = resultCount.get(pos);
       for (String [] facetEntry : facets) {
         pos++;
         JsonObject facetObj = null;
@@ -1028,9 +1844,12 @@ public class Storage {
         JsonArray facetValues = facetObj.getJsonArray("facetValues");
         facetValues.add(new JsonObject()
             .put("value", facetValue)
-            .put("count", row.getInteger(pos)));
+            .put("count", resultCount.get(pos)));
       }
       resultInfo.put("totalRecords", count);
+      if (resultCount.isEstimated()) {
+        resultInfo.put("estimated", true);
+      }
     }
     JsonArray diagnostics = new JsonArray();
     if (diagnostic != null) {
@@ -1038,109 +1857,270 @@ public class Storage {
     }
     resultInfo.put("diagnostics", diagnostics);
     resultInfo.put("facets", facetArray);
+    if (keyset != null && keyset.next() != null) {
+      resultInfo.put("next", keyset.next());
+    }
     ctx.response().write("], \"resultInfo\": " + resultInfo.encode() + "}");
     ctx.response().end();
   }
 
+  /**
+   * Write results for a chunk of rows.
+   * @param rows rows; cleared when handler is called
+   * @return async result; succeeds even if handler fails
+   */
+  private static Future<Void> writeRows(RoutingContext ctx, AtomicBoolean first,
+      Function<List<Row>, Future<List<String>>> handler, List<Row> rows) {
+    if (rows.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    List<Row> chunk = new ArrayList<>(rows);
+    rows.clear();
+    return handler.apply(chunk)
+        .onSuccess(responses -> responses.forEach(response -> {
+          if (!first.getAndSet(false)) {
+            ctx.response().write(",");
+          }
+          ctx.response().write(response);
+        }))
+        .<Void>mapEmpty()
+        .recover(e -> {
+          log.info("failure {}", e.getMessage(), e);
+          return Future.succeededFuture();
+        });
+  }
+
+  /**
+   * Resume stream of rows once response is ready for more.
+   *
+   * <p>If the client is slower than the database, the stream stays paused until the
+   * response write queue is drained, so the result is not buffered in memory.
+   */
+  private static void resumeWhenWritable(HttpServerResponse response, RowStream<Row> stream) {
+    if (!response.writeQueueFull()) {
+      stream.resume();
+      return;
+    }
+    response.drainHandler(x -> {
+      response.drainHandler(null);
+      stream.resume();
+    });
+  }
+
+  /**
+   * Make handler encoding responses from handler for chunk of rows.
+   *
+   * <p>Properties with null values are left out of the encoding.
+   */
+  static Function<List<Row>, Future<List<String>>> encoded(
+      Function<List<Row>, Future<List<JsonObject>>> handler) {
+    return rows -> handler.apply(rows).map(responses -> {
+      List<String> encoded = new ArrayList<>(responses.size());
+      responses.forEach(response -> encoded.add(copyWithoutNulls(response).encode()));
+      return encoded;
+    });
+  }
+
+  /**
+   * Make handler for chunk of rows from handler for one row.
+   *
+   * <p>Rows are handled one at a time; a row that fails is left out.
+   */
+  static Function<List<Row>, Future<List<JsonObject>>> eachRow(
+      Function<Row, Future<JsonObject>> handler) {
+    return rows -> {
+      List<JsonObject> responses = new ArrayList<>(rows.size());
+      Future<Void> future = Future.succeededFuture();
+      for (Row row : rows) {
+        future = future.compose(x -> handler.apply(row)
+            .onSuccess(responses::add)
+            .<Void>mapEmpty()
+            .recover(e -> {
+              log.info("failure {}", e.getMessage(), e);
+              return Future.succeededFuture();
+            }));
+      }
+      return future.map(responses);
+    };
+  }
+
   @java.lang.SuppressWarnings({"squid:S107"})  // too many arguments
   Future<Void> streamResult(RoutingContext ctx, SqlConnection sqlConnection,
-      String query, String cnt, Tuple tuple, String property, List<String[]> facets,
-      Function<Row, Future<JsonObject>> handler) {
+      String query, Tuple tuple, Function<SqlConnection, Future<ResultCount>> counter,
+      String property, List<String[]> facets, Keyset keyset,
+      Function<List<Row>, Future<List<String>>> handler) {
 
     return sqlConnection.prepare(query)
         .compose(pq ->
-            sqlConnection.begin().compose(tx -> {
+            StreamTransaction.begin(ctx, sqlConnection).compose(tx -> {
               ctx.response().setChunked(true);
+              ctx.response().setWriteQueueMaxSize(streamWriteQueueMaxSize);
               ctx.response().putHeader("Content-Type", "application/json");
               ctx.response().write("{ \"" + property + "\" : [");
               AtomicBoolean first = new AtomicBoolean(true);
+              List<Row> rows = new ArrayList<>();
               RowStream<Row> stream = pq.createStream(sqlStreamFetchSize, tuple);
+              tx.setStream(stream);
+              // rows are handled in chunks of fetch size
               stream.handler(row -> {
-                stream.pause();
-                Future<JsonObject> f = handler.apply(row);
-                f.onSuccess(response -> {
-                  if (!first.getAndSet(false)) {
-                    ctx.response().write(",");
-                  }
-                  ctx.response().write(copyWithoutNulls(response).encode());
-                  stream.resume();
-                });
-                f.onFailure(e -> {
-                  log.info("failure {}", e.getMessage(), e);
-                  stream.resume();
-                });
+                if (keyset != null) {
+                  keyset.add(row);
+                }
+                rows.add(row);
+                if (rows.size() >= sqlStreamFetchSize) {
+                  stream.pause();
+                  writeRows(ctx, first, handler, rows)
+                      .onComplete(x -> resumeWhenWritable(ctx.response(), stream));
+                }
               });
-              stream.endHandler(end -> {
-                Future<RowSet<Row>> cntFuture = cnt != null
-                    ? sqlConnection.preparedQuery(cnt).execute(tuple)
+              stream.endHandler(end -> writeRows(ctx, first, handler, rows).onComplete(x -> {
+                if (tx.isEnded()) {
+                  return;
+                }
+                Future<ResultCount> cntFuture = counter != null
+                    ? counter.apply(sqlConnection)
                     : Future.succeededFuture(null);
                 cntFuture
-                    .onSuccess(cntRes -> resultFooter(ctx, cntRes, facets, null))
+                    .onSuccess(cntRes -> resultFooter(ctx, cntRes, facets, null, keyset))
                     .onFailure(f -> {
                       log.error(f.getMessage(), f);
-                      resultFooter(ctx, null, facets, f.getMessage());
+                      resultFooter(ctx, null, facets, f.getMessage(), keyset);
                     })
-                    .eventually(x -> tx.commit().compose(y -> sqlConnection.close()));
-              });
+                    .eventually(y -> tx.end());
+              }));
               stream.exceptionHandler(e -> {
                 log.error("stream error {}", e.getMessage(), e);
-                resultFooter(ctx, null, facets, e.getMessage());
-                tx.commit().compose(y -> sqlConnection.close());
+                if (tx.isEnded()) {
+                  return;
+                }
+                resultFooter(ctx, null, facets, e.getMessage(), null);
+                tx.end();
               });
               return Future.succeededFuture();
             })
         );
   }
 
-  Future<Void> streamResult(RoutingContext ctx, String distinct,
-      String from, String orderByClause, String property, Function<Row,
-      Future<JsonObject>> handler) {
+  @java.lang.SuppressWarnings({"squid:S107"})  // too many arguments
+  Future<Void> streamResult(RoutingContext ctx, String from, String where, String keyColumn,
+      String orderByClause, String property, Function<Row, Future<JsonObject>> handler) {
 
-    return streamResult(ctx, distinct, distinct, Tuple.tuple(), List.of(from),
-        Collections.emptyList(), orderByClause, property, handler);
+    return streamResult(ctx, null, null, "*", Tuple.tuple(), List.of(from), where, keyColumn,
+        Collections.emptyList(), orderByClause, property, encoded(eachRow(handler)));
   }
 
+  @java.lang.SuppressWarnings({"squid:S107"})  // too many arguments
   Future<Void> streamResult(RoutingContext ctx, String distinct,
-      Tuple tuple, String from, String orderByClause, String property,
-      Function<Row, Future<JsonObject>> handler) {
+      Tuple tuple, String from, String where, String keyColumn, String orderByClause,
+      String property, Function<List<Row>, Future<List<JsonObject>>> handler) {
 
-    return streamResult(ctx, distinct, distinct, tuple, List.of(from),
-        Collections.emptyList(), orderByClause, property, handler);
+    return streamResult(ctx, distinct, distinct, "*", tuple, List.of(from), where, keyColumn,
+        Collections.emptyList(), orderByClause, property, encoded(handler));
   }
 
+  /**
+   * Stream result of query.
+   *
+   * <p>With query parameter cursor, the result is paged with {@link Keyset} on keyColumn
+   * rather than with offset, and resultInfo has the cursor of the next page. With count
+   * estimate, counts are planner estimates unless the estimated total is below
+   * {@link #setCountEstimateThreshold(int)}.
+   * @param ctx routing context with offset, limit, count and cursor parameters
+   * @param distinctMain DISTINCT ON expression for result; null for none
+   * @param distinctCount COUNT DISTINCT expression for count; null for none
+   * @param columns columns of result
+   * @param tuple parameters for where
+   * @param fromList FROM for result and count; more entries are for facets
+   * @param where WHERE clause for first FROM; null for none
+   * @param keyColumn unique column for keyset paging; null if not supported
+   * @param facets facet type and value for each additional FROM
+   * @param orderByClause ORDER BY clause; null for none
+   * @param property name of items property in result
+   * @param handler makes encoded response for each row in chunk of rows
+   * @return async result
+   */
   @java.lang.SuppressWarnings({"squid:S107"})  // too many arguments
-  Future<Void> streamResult(RoutingContext ctx, String distinctMain,
-      String distinctCount, Tuple tuple, List<String> fromList, List<String[]> facets,
-      String orderByClause, String property, Function<Row, Future<JsonObject>> handler) {
+  Future<Void> streamResult(RoutingContext ctx, String distinctMain, String distinctCount,
+      String columns, Tuple tuple, List<String> fromList, String where, String keyColumn,
+      List<String[]> facets, String orderByClause, String property,
+      Function<List<Row>, Future<List<String>>> handler) {
 
     RequestParameters params = ctx.get(ValidationHandler.REQUEST_CONTEXT_KEY);
     Integer offset = params.queryParameter("offset").getInteger();
     Integer limit = params.queryParameter("limit").getInteger();
     String count = params.queryParameter("count").getString();
+    RequestParameter cursor = params.queryParameter("cursor");
+    String mainWhere = where;
+    String mainOrderBy = orderByClause;
+    Tuple mainTuple = tuple;
+    Keyset keyset = null;
+    if (cursor != null) {
+      if (keyColumn == null) {
+        return Future.failedFuture("cursor is not supported for " + property);
+      }
+      if (orderByClause != null) {
+        return Future.failedFuture("cursor can not be combined with sortby");
+      }
+      if (offset > 0) {
+        return Future.failedFuture("cursor can not be combined with offset");
+      }
+      Object last;
+      try {
+        last = Keyset.decode(cursor.getString());
+      } catch (IllegalArgumentException e) {
+        return Future.failedFuture(e.getMessage());
+      }
+      keyset = new Keyset(keyColumn, limit);
+      mainOrderBy = keyColumn;
+      if (last != null) {
+        mainTuple = Tuple.tuple();
+        for (int i = 0; i < tuple.size(); i++) {
+          mainTuple.addValue(tuple.getValue(i));
+        }
+        mainTuple.addValue(last);
+        mainWhere = (where == null ? "" : "(" + where + ") AND ")
+            + keyColumn + " > $" + mainTuple.size();
+      }
+    }
     String query = "SELECT " + (distinctMain != null ? "DISTINCT ON (" + distinctMain + ")" : "")
-        + " * FROM " + fromList.get(0)
-        + (orderByClause == null ?  "" : " ORDER BY " + orderByClause)
+        + " " + columns + " FROM " + fromList.get(0)
+        + (mainWhere == null ? "" : " WHERE " + mainWhere)
+        + (mainOrderBy == null ?  "" : " ORDER BY " + mainOrderBy)
         + " LIMIT " + limit + " OFFSET " + offset;
-    boolean exact = "exact".equals(count);
     log.info("query={}", query);
-    StringBuilder countQuery = new StringBuilder("SELECT");
-    if (exact) {
+    Function<SqlConnection, Future<ResultCount>> counter = null;
+    if ("exact".equals(count) || "estimate".equals(count)) {
+      StringBuilder countQuery = new StringBuilder("SELECT");
+      List<String> estimateQueries = new ArrayList<>();
+      List<Tuple> estimateTuples = new ArrayList<>();
       int pos = 0;
       for (String from : fromList) {
         if (pos > 0) {
           countQuery.append(",\n");
         }
-        countQuery.append("(SELECT COUNT("
-            + (distinctCount != null ? "DISTINCT " + distinctCount : "*")
-            + ") FROM " + from + ") AS cnt" + pos);
+        String countColumns = distinctCount != null ? "DISTINCT " + distinctCount : "*";
+        String fromWhere = " FROM " + from + (pos == 0 && where != null ? " WHERE " + where : "");
+        countQuery.append("(SELECT COUNT(" + countColumns + ")" + fromWhere + ") AS cnt" + pos);
+        estimateQueries.add("SELECT " + countColumns + fromWhere);
+        estimateTuples.add(pos == 0 ? tuple : Tuple.tuple());
         pos++;
       }
       log.info("cnt={}", countQuery);
+      String countQueryString = countQuery.toString();
+      if ("exact".equals(count)) {
+        counter = conn -> ResultCount.exact(conn, countQueryString, tuple);
+      } else {
+        int threshold = countEstimateThreshold;
+        counter = conn -> ResultCount.estimate(conn, estimateQueries, estimateTuples,
+            threshold, countQueryString, tuple);
+      }
     }
-    String countQueryString = exact ? countQuery.toString() : null;
+    Tuple queryTuple = mainTuple;
+    Keyset queryKeyset = keyset;
+    Function<SqlConnection, Future<ResultCount>> queryCounter = counter;
     return pool.getConnection()
-        .compose(sqlConnection -> streamResult(ctx, sqlConnection, query, countQueryString,
-            tuple, property, facets, handler)
+        .compose(sqlConnection -> streamResult(ctx, sqlConnection, query, queryTuple,
+            queryCounter, property, facets, queryKeyset, handler)
             .onFailure(x -> sqlConnection.close()));
   }
 
@@ -0,0 +1,106 @@
+package org.folio.metastorage.server;
+
+import io.vertx.core.Future;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowStream;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Transaction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Transaction of a result that is streamed to an HTTP client.
+ *
+ * <p>If the client closes the connection before the response is complete, the row stream
+ * is closed, the transaction rolled back and the connection returned to the pool at once,
+ * rather than when all rows have been read. Each statement of the transaction is limited
+ * by the statement timeout, if set.
+ */
+class StreamTransaction {
+  private static final Logger log = LogManager.getLogger(StreamTransaction.class);
+
+  private static int statementTimeout;
+
+  private final SqlConnection conn;
+  private final Transaction tx;
+  private final AtomicBoolean ended = new AtomicBoolean();
+  private RowStream<Row> stream;
+
+  private StreamTransaction(SqlConnection conn, Transaction tx) {
+    this.conn = conn;
+    this.tx = tx;
+  }
+
+  /**
+   * Set statement timeout for streamed results.
+   * @param timeout timeout in milliseconds; 0 for no timeout
+   */
+  static void setStatementTimeout(int timeout) {
+    if (timeout < 0) {
+      throw new IllegalArgumentException("statement timeout must not be negative");
+    }
+    statementTimeout = timeout;
+  }
+
+  /**
+   * Begin transaction for response.
+   * @param ctx routing context of response
+   * @param conn connection; closed when transaction ends
+   * @return async result
+   */
+  static Future<StreamTransaction> begin(RoutingContext ctx, SqlConnection conn) {
+    return conn.begin()
+        .compose(tx -> {
+          if (statementTimeout == 0) {
+            return Future.succeededFuture(tx);
+          }
+          return conn.query("SET LOCAL statement_timeout = " + statementTimeout).execute()
+              .map(tx);
+        })
+        .map(tx -> {
+          StreamTransaction streamTransaction = new StreamTransaction(conn, tx);
+          ctx.response().closeHandler(x -> streamTransaction.abort());
+          return streamTransaction;
+        });
+  }
+
+  /**
+   * Set stream of rows to close if the client goes away.
+   * @param stream row stream
+   */
+  void setStream(RowStream<Row> stream) {
+    this.stream = stream;
+  }
+
+  boolean isEnded() {
+    return ended.get();
+  }
+
+  /**
+   * Commit transaction and close connection, unless already ended.
+   * @return async result
+   */
+  Future<Void> end() {
+    if (ended.getAndSet(true)) {
+      return Future.succeededFuture();
+    }
+    return tx.commit().eventually(x -> conn.close());
+  }
+
+  /**
+   * Close stream, roll back transaction and close connection, unless already ended.
+   * @return async result
+   */
+  Future<Void> abort() {
+    if (ended.getAndSet(true)) {
+      return Future.succeededFuture();
+    }
+    log.info("client closed connection; stream aborted");
+    Future<Void> future = stream != null ? stream.close() : Future.succeededFuture();
+    return future
+        .eventually(x -> tx.rollback())
+        .eventually(x -> conn.close());
+  }
+}
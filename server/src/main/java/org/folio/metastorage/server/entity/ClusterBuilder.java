@@ -9,6 +9,7 @@ import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 
 public class ClusterBuilder {
@@ -23,6 +24,12 @@ public class ClusterBuilder {
   public static final String MATCH_VALUES_LABEL = "matchValues";
   public static final String RECORDS_LABEL = "records";
 
+  /**
+   * Global record columns for {@link #encodeRecordRaw(Row)}, with payload as text.
+   */
+  public static final String RAW_RECORD_COLUMNS =
+      "id, local_id, source_id, source_version, payload::text AS payload";
+
 
   private JsonObject clusterJson = new JsonObject();
 
@@ -84,6 +91,15 @@ public class ClusterBuilder {
   public ClusterBuilder matchValues(RowSet<Row> rows) {
     JsonArray matchValues = new JsonArray();
     rows.forEach(row -> matchValues.add(row.getString("match_value")));
+    return matchValues(matchValues);
+  }
+
+  /**
+   * Set matchValues from JsonArray.
+   * @param matchValues match values
+   * @return this
+   */
+  public ClusterBuilder matchValues(JsonArray matchValues) {
     clusterJson.put(MATCH_VALUES_LABEL, matchValues);
     return this;
   }
@@ -105,4 +121,28 @@ public class ClusterBuilder {
       .put(SOURCE_VERSION_LABEL, row.getInteger("source_version"))
       .put(PAYLOAD_LABEL, row.getJsonObject(PAYLOAD_LABEL));
   }
+
+  /**
+   * Encodes a single global record row as JSON without decoding the payload.
+   *
+   * <p>The payload text is spliced into the encoding of the other fields as is, which
+   * saves decoding and encoding large payloads when they are just passed on.
+   * @param row global record row with {@link #RAW_RECORD_COLUMNS}
+   * @return JSON encoding
+   */
+  public static String encodeRecordRaw(Row row) {
+    JsonObject globalRecord = new JsonObject()
+        .put(GLOBAL_ID_LABEL, row.getUUID("id"))
+        .put(LOCAL_ID_LABEL, row.getString("local_id"))
+        .put(SOURCE_ID_LABEL, row.getString("source_id"))
+        .put(SOURCE_VERSION_LABEL, row.getInteger("source_version"));
+    globalRecord.getMap().values().removeIf(Objects::isNull);
+    String encoded = globalRecord.encode();
+    String payload = row.getString(PAYLOAD_LABEL);
+    if (payload == null) {
+      return encoded;
+    }
+    return encoded.substring(0, encoded.length() - 1) + (globalRecord.isEmpty() ? "" : ",")
+        + "\"" + PAYLOAD_LABEL + "\":" + payload + "}";
+  }
 }
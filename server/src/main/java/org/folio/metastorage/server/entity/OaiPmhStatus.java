@@ -14,6 +14,8 @@ public class OaiPmhStatus {
 
   String error;
 
+  Integer ingestConcurrency;
+
   LocalDateTime lastActiveTimestamp;
 
   Long lastRecsPerSec;
@@ -44,6 +46,14 @@ public class OaiPmhStatus {
     this.error = error;
   }
 
+  public Integer getIngestConcurrency() {
+    return ingestConcurrency;
+  }
+
+  public void setIngestConcurrency(Integer ingestConcurrency) {
+    this.ingestConcurrency = ingestConcurrency;
+  }
+
   /**
    * Get last active timestamp as string.
    * @return time in UTC
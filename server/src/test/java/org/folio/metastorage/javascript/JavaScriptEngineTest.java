@@ -0,0 +1,31 @@
+package org.folio.metastorage.javascript;
+
+import io.vertx.core.json.JsonObject;
+import org.folio.okapi.testing.UtilityClassTester;
+import org.graalvm.polyglot.Context;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JavaScriptEngineTest {
+
+  @Test
+  public void isUtilityClass() {
+    UtilityClassTester.assertUtilityClass(JavaScriptEngine.class);
+  }
+
+  @Test
+  public void contexts() {
+    int count = JavaScriptEngine.getContextCount();
+    Context context1 = JavaScriptEngine.createContext(false);
+    Context context2 = JavaScriptEngine.createContext(true);
+    Assert.assertEquals(count + 2, JavaScriptEngine.getContextCount());
+    Assert.assertEquals(context1.getEngine(), context2.getEngine());
+    Assert.assertEquals(3, context1.eval("js", "1 + 2").asInt());
+    JsonObject metrics = JavaScriptEngine.getMetrics();
+    Assert.assertEquals(count + 2, metrics.getInteger("contexts").intValue());
+    Assert.assertTrue(metrics.getLong("heapUsed") > 0);
+    JavaScriptEngine.closeContext(context1);
+    JavaScriptEngine.closeContext(context2);
+    Assert.assertEquals(count, JavaScriptEngine.getContextCount());
+  }
+}
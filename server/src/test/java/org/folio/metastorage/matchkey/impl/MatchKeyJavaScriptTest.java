@@ -1,5 +1,6 @@
 package org.folio.metastorage.matchkey.impl;
 
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.http.HttpServerResponse;
@@ -9,10 +10,14 @@ import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
 import io.vertx.ext.web.Router;
 import io.vertx.reactivex.core.http.HttpHeaders;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 
 import org.folio.metastorage.matchkey.MatchKeyMethod;
+import org.folio.metastorage.matchkey.MatchKeyPayload;
+import org.folio.okapi.common.GenericCompositeFuture;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -22,6 +27,8 @@ import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.sameInstance;
 
 @RunWith(VertxUnitRunner.class)
 public class MatchKeyJavaScriptTest {
@@ -230,4 +237,49 @@ public class MatchKeyJavaScriptTest {
           m.close();
         }));
   }
+
+  @Test
+  public void testParallel(TestContext context) {
+    MatchKeyJavaScript m = new MatchKeyJavaScript();
+    m.configure(vertx, new JsonObject()
+            .put("script", "x => { var s = 0; for (let i = 0; i < 100000; i++) { s += i; }"
+                + " return JSON.parse(x).id; }"))
+        .compose(x -> {
+          List<Future<Void>> futures = new ArrayList<>();
+          for (int i = 0; i < 20; i++) {
+            String id = Integer.toString(i);
+            futures.add(vertx.executeBlocking(promise -> {
+              Collection<String> keys = new HashSet<>();
+              m.getKeys(new JsonObject().put("id", id), keys);
+              assertThat(keys, containsInAnyOrder(id));
+              promise.complete();
+            }, false));
+          }
+          return GenericCompositeFuture.all(futures);
+        })
+        .onComplete(context.asyncAssertSuccess(x -> {
+          assertThat(m.getIdleContexts(), greaterThanOrEqualTo(1));
+          m.close();
+          assertThat(m.getIdleContexts(), is(0));
+        }));
+  }
+
+  @Test
+  public void testSharedPayload(TestContext context) {
+    MatchKeyMethod m1 = new MatchKeyJavaScript();
+    MatchKeyMethod m2 = new MatchKeyJsonPath();
+    m1.configure(vertx, new JsonObject().put("script", "x => JSON.parse(x).id + 'x'"))
+        .compose(x -> m2.configure(vertx, new JsonObject().put("expr", "$.id")))
+        .onComplete(context.asyncAssertSuccess(x -> {
+          MatchKeyPayload payload = new MatchKeyPayload(new JsonObject().put("id", "2"));
+          Collection<String> keys = new HashSet<>();
+          m1.getKeys(payload, keys);
+          String encoded = payload.getEncoded();
+          m2.getKeys(payload, keys);
+          m1.getKeys(payload, keys);
+          assertThat(keys, containsInAnyOrder("2x", "2"));
+          assertThat(payload.getEncoded(), sameInstance(encoded));
+          m1.close();
+        }));
+  }
 }
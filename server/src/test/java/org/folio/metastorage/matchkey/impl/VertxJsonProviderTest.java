@@ -0,0 +1,69 @@
+package org.folio.metastorage.matchkey.impl;
+
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.InvalidJsonException;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+
+public class VertxJsonProviderTest {
+
+  static final Configuration CONFIGURATION = Configuration.builder()
+      .jsonProvider(new VertxJsonProvider())
+      .build();
+
+  @Test
+  public void read() {
+    JsonObject payload = new JsonObject()
+        .put("a", new JsonArray()
+            .add(new JsonObject().put("b", "1").put("n", 1))
+            .add(new JsonObject().put("b", "2").put("n", 2))
+            .add(new JsonObject().put("c", "3")));
+    Object o = JsonPath.using(CONFIGURATION).parse(payload).read("$.a[*].b");
+    assertThat(o, is(new JsonArray().add("1").add("2")));
+    o = JsonPath.using(CONFIGURATION).parse(payload).read("$.a[?(@.n > 1)].b");
+    assertThat(o, is(new JsonArray().add("2")));
+    o = JsonPath.using(CONFIGURATION).parse(payload).read("$.a[1]");
+    assertThat(o, is(new JsonObject().put("b", "2").put("n", 2)));
+    o = JsonPath.using(CONFIGURATION).parse(payload).read("$.a.length()");
+    assertThat(o, is(3));
+    o = JsonPath.using(CONFIGURATION).parse(payload).read("$..c");
+    assertThat(o, is(new JsonArray().add("3")));
+  }
+
+  @Test
+  public void write() {
+    JsonObject payload = new JsonObject()
+        .put("a", new JsonArray().add("x").add("y"))
+        .put("o", new JsonObject());
+    JsonPath.using(CONFIGURATION).parse(payload)
+        .set("$.a[0]", "z")
+        .add("$.a", "w")
+        .put("$.o", "b", "v")
+        .delete("$.a[1]");
+    assertThat(payload, is(new JsonObject()
+        .put("a", new JsonArray().add("z").add("w"))
+        .put("o", new JsonObject().put("b", "v"))));
+  }
+
+  @Test
+  public void parse() {
+    JsonProvider provider = new VertxJsonProvider();
+    Object o = provider.parse("{\"a\":[1]}");
+    assertThat(o, is(new JsonObject().put("a", new JsonArray().add(1))));
+    assertThat(provider.toJson(o), is("{\"a\":[1]}"));
+    assertThat(provider.getPropertyKeys(o), containsInAnyOrder("a"));
+    o = provider.parse(new ByteArrayInputStream("[1,2]".getBytes(StandardCharsets.UTF_8)), "UTF-8");
+    assertThat(o, is(new JsonArray().add(1).add(2)));
+    Assert.assertThrows(InvalidJsonException.class, () -> provider.parse("{"));
+  }
+}
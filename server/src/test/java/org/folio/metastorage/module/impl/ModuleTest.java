@@ -1,14 +1,18 @@
 package org.folio.metastorage.module.impl;
 
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import org.folio.metastorage.module.ModuleCache;
 import org.folio.metastorage.server.entity.ClusterBuilder;
+import org.folio.okapi.common.GenericCompositeFuture;
 import org.graalvm.polyglot.PolyglotException;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -18,6 +22,7 @@ import org.junit.runner.RunWith;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
 
 @RunWith(VertxUnitRunner.class)
@@ -176,6 +181,39 @@ public class ModuleTest {
     );
   }
 
+  @Test
+  public void moduleParallel(TestContext context) {
+    ClusterBuilder cb = new ClusterBuilder(UUID.randomUUID());
+    cb.records(recordsIn);
+    JsonObject input = cb.build();
+
+    JsonObject config = new JsonObject()
+        .put("id", "marc-transformer")
+        .put("url", HOSTPORT + "/lib/marc-transformer.mjs")
+        .put("function", "transform");
+
+    ModuleCache.getInstance().lookup(vertx, TENANT, config)
+        .compose(m -> m.execute(input).compose(expected -> {
+          List<Future<Void>> futures = new ArrayList<>();
+          for (int i = 0; i < 20; i++) {
+            futures.add(vertx.executeBlocking(promise ->
+                m.execute(input).<Void>map(output -> {
+                  assertThat(output, is(expected));
+                  return null;
+                }).onComplete(promise), false));
+          }
+          return GenericCompositeFuture.all(futures);
+        }).map(x -> (EsModuleImpl) m))
+        .onComplete(context.asyncAssertSuccess(m -> {
+          assertThat(m.getIdleContexts(), greaterThanOrEqualTo(1));
+          m.terminate();
+          assertThat(m.getIdleContexts(), is(0));
+          Future.succeededFuture().compose(x -> m.execute(input))
+              .onComplete(context.asyncAssertFailure(e ->
+                  assertThat(e.getMessage(), containsString("is terminated"))));
+        }));
+  }
+
   @Test
   public void moduleReturnInt(TestContext context) {
     ClusterBuilder cb = new ClusterBuilder(UUID.randomUUID());
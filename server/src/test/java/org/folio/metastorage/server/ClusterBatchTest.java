@@ -0,0 +1,81 @@
+package org.folio.metastorage.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+public class ClusterBatchTest {
+
+  @Test
+  public void newValues() {
+    UUID r1 = UUID.randomUUID();
+    UUID r2 = UUID.randomUUID();
+    UUID r3 = UUID.randomUUID();
+    ClusterBatch batch = new ClusterBatch();
+    batch.addRecord(r1, List.of("a", "b"));
+    batch.addRecord(r2, List.of("b"));
+    batch.addRecord(r3, List.of("c"));
+    Assert.assertEquals(Set.of("a", "b", "c"), batch.getKeys());
+    batch.resolve(Collections.emptyMap());
+    Map<UUID, UUID> recordClusters = batch.getRecordClusters();
+    Assert.assertEquals(3, recordClusters.size());
+    Assert.assertEquals(recordClusters.get(r1), recordClusters.get(r2));
+    Assert.assertNotEquals(recordClusters.get(r1), recordClusters.get(r3));
+    Assert.assertEquals(2, batch.getNewClusters().size());
+    Assert.assertTrue(batch.getFoundClusters().isEmpty());
+    Assert.assertTrue(batch.getMergedClusters().isEmpty());
+    Assert.assertEquals(recordClusters.get(r1), batch.getNewValues().get("a"));
+    Assert.assertEquals(recordClusters.get(r1), batch.getNewValues().get("b"));
+    Assert.assertEquals(recordClusters.get(r3), batch.getNewValues().get("c"));
+  }
+
+  @Test
+  public void noValues() {
+    UUID r1 = UUID.randomUUID();
+    UUID r2 = UUID.randomUUID();
+    ClusterBatch batch = new ClusterBatch();
+    batch.addRecord(r1, Collections.emptyList());
+    batch.addRecord(r2, Collections.emptyList());
+    batch.resolve(Collections.emptyMap());
+    Assert.assertEquals(2, batch.getNewClusters().size());
+    Assert.assertNotEquals(batch.getRecordClusters().get(r1), batch.getRecordClusters().get(r2));
+    Assert.assertTrue(batch.getNewValues().isEmpty());
+  }
+
+  @Test
+  public void foundValue() {
+    UUID r1 = UUID.randomUUID();
+    UUID c1 = UUID.randomUUID();
+    ClusterBatch batch = new ClusterBatch();
+    batch.addRecord(r1, List.of("a", "b"));
+    batch.resolve(Map.of("a", c1));
+    Assert.assertEquals(c1, batch.getRecordClusters().get(r1));
+    Assert.assertEquals(Set.of(c1), batch.getFoundClusters());
+    Assert.assertTrue(batch.getNewClusters().isEmpty());
+    Assert.assertTrue(batch.getMergedClusters().isEmpty());
+    Assert.assertEquals(Map.of("b", c1), batch.getNewValues());
+  }
+
+  @Test
+  public void mergeClusters() {
+    UUID r1 = UUID.randomUUID();
+    UUID r2 = UUID.randomUUID();
+    UUID c1 = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    UUID c2 = UUID.fromString("00000000-0000-0000-0000-000000000002");
+    ClusterBatch batch = new ClusterBatch();
+    batch.addRecord(r1, List.of("b"));
+    batch.addRecord(r2, List.of("a", "b", "c"));
+    batch.resolve(Map.of("a", c2, "c", c1));
+    Assert.assertEquals(c1, batch.getRecordClusters().get(r1));
+    Assert.assertEquals(c1, batch.getRecordClusters().get(r2));
+    Assert.assertEquals(Map.of(c2, c1), batch.getMergedClusters());
+    Assert.assertEquals(Set.of(c1, c2), batch.getFoundClusters());
+    Assert.assertTrue(batch.getNewClusters().isEmpty());
+    Assert.assertEquals(Map.of("b", c1), batch.getNewValues());
+  }
+}
@@ -0,0 +1,126 @@
+package org.folio.metastorage.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+public class ClusterUnionFindTest {
+
+  @Test
+  public void components() {
+    UUID r1 = UUID.randomUUID();
+    UUID r2 = UUID.randomUUID();
+    UUID r3 = UUID.randomUUID();
+    UUID r4 = UUID.randomUUID();
+    UUID r5 = UUID.randomUUID();
+    ClusterUnionFind builder = new ClusterUnionFind();
+    builder.addRecord(r1, List.of("a"));
+    builder.addRecord(r2, List.of("b"));
+    builder.addRecord(r3, List.of("c"));
+    builder.addRecord(r4, List.of("a", "c"));
+    builder.addRecord(r5, List.of());
+    builder.build();
+
+    Assert.assertEquals(5, builder.getRecordCount());
+    Assert.assertEquals(3, builder.getClusterCount());
+    Assert.assertEquals(3, builder.getValueCount());
+    Map<UUID, UUID> recordClusters = new HashMap<>();
+    for (int i = 0; i < builder.getRecordCount(); i++) {
+      recordClusters.put(builder.getRecordId(i), builder.getRecordClusterId(i));
+    }
+    Assert.assertEquals(recordClusters.get(r1), recordClusters.get(r3));
+    Assert.assertEquals(recordClusters.get(r1), recordClusters.get(r4));
+    Assert.assertNotEquals(recordClusters.get(r1), recordClusters.get(r2));
+    Assert.assertNotEquals(recordClusters.get(r1), recordClusters.get(r5));
+    Assert.assertNotEquals(recordClusters.get(r2), recordClusters.get(r5));
+
+    Map<String, UUID> valueClusters = new HashMap<>();
+    for (int i = 0; i < builder.getValueCount(); i++) {
+      valueClusters.put(builder.getValue(i), builder.getValueClusterId(i));
+    }
+    Assert.assertEquals(recordClusters.get(r1), valueClusters.get("a"));
+    Assert.assertEquals(recordClusters.get(r1), valueClusters.get("c"));
+    Assert.assertEquals(recordClusters.get(r2), valueClusters.get("b"));
+
+    Set<UUID> clusters = new HashSet<>();
+    for (int i = 0; i < builder.getClusterCount(); i++) {
+      clusters.add(builder.getClusterId(i));
+    }
+    Assert.assertEquals(new HashSet<>(recordClusters.values()), clusters);
+
+    Assert.assertThrows(IllegalStateException.class,
+        () -> builder.addRecord(UUID.randomUUID(), List.of("a")));
+  }
+
+  @Test
+  public void existingClusters() {
+    UUID c1 = UUID.randomUUID();
+    UUID c2 = UUID.randomUUID();
+    UUID c3 = UUID.randomUUID();
+    UUID c4 = UUID.randomUUID();
+    List<UUID> r = new ArrayList<>();
+    for (int i = 0; i < 7; i++) {
+      r.add(UUID.randomUUID());
+    }
+    ClusterUnionFind builder = new ClusterUnionFind(7);
+    builder.addRecord(r.get(0), c1, List.of("a"));
+    builder.addRecord(r.get(1), c1, List.of("a"));
+    builder.addRecord(r.get(2), c2, List.of("b", "e")); // new value
+    builder.addRecord(r.get(3), c3, List.of("c")); // value d is gone
+    builder.addRecord(r.get(4), null, List.of("f")); // new record
+    builder.addRecord(r.get(5), c4, List.of("g")); // c4 is split
+    builder.addRecord(r.get(6), c4, List.of("h"));
+    builder.addExistingValue("a", c1);
+    builder.addExistingValue("b", c2);
+    builder.addExistingValue("c", c3);
+    builder.addExistingValue("d", c3);
+    builder.addExistingValue("g", c4);
+    builder.addExistingValue("h", c4);
+    builder.build();
+
+    Assert.assertEquals(6, builder.getClusterCount());
+    Map<UUID, Integer> recordClusters = new HashMap<>();
+    for (int i = 0; i < builder.getRecordCount(); i++) {
+      for (int c = 0; c < builder.getClusterCount(); c++) {
+        if (builder.getClusterId(c).equals(builder.getRecordClusterId(i))) {
+          recordClusters.put(builder.getRecordId(i), c);
+        }
+      }
+    }
+    int kept = recordClusters.get(r.get(0));
+    Assert.assertEquals(c1, builder.getClusterId(kept));
+    Assert.assertTrue(builder.isExistingCluster(kept));
+    Assert.assertEquals(Integer.valueOf(kept), recordClusters.get(r.get(1)));
+    for (int i = 2; i < 7; i++) {
+      int c = recordClusters.get(r.get(i));
+      Assert.assertFalse(builder.isExistingCluster(c));
+      Assert.assertFalse(Set.of(c1, c2, c3, c4).contains(builder.getClusterId(c)));
+    }
+    Assert.assertNotEquals(recordClusters.get(r.get(5)), recordClusters.get(r.get(6)));
+  }
+
+  @Test
+  public void chain() {
+    // grows beyond initial capacity; each record shares a value with the previous one
+    List<UUID> ids = new ArrayList<>();
+    ClusterUnionFind builder = new ClusterUnionFind();
+    for (int i = 0; i < 5000; i++) {
+      UUID id = UUID.randomUUID();
+      ids.add(id);
+      builder.addRecord(id, List.of("v" + i, "v" + (i + 1)));
+    }
+    builder.build();
+    Assert.assertEquals(5000, builder.getRecordCount());
+    Assert.assertEquals(5001, builder.getValueCount());
+    Assert.assertEquals(1, builder.getClusterCount());
+    Assert.assertEquals(ids.get(4999), builder.getRecordId(4999));
+    Assert.assertEquals(builder.getClusterId(0), builder.getRecordClusterId(4999));
+  }
+}
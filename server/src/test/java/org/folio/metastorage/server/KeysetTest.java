@@ -0,0 +1,33 @@
+package org.folio.metastorage.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.UUID;
+
+public class KeysetTest {
+
+  @Test
+  public void encodeDecode() {
+    UUID uuid = UUID.randomUUID();
+    Assert.assertEquals(uuid, Keyset.decode(Keyset.encode(uuid)));
+    Assert.assertEquals("isbn", Keyset.decode(Keyset.encode("isbn")));
+    Assert.assertEquals("", Keyset.decode(Keyset.encode("")));
+    Assert.assertNull(Keyset.decode(Keyset.START));
+  }
+
+  @Test
+  public void decodeInvalid() {
+    for (String cursor : new String[] {"", "!", Keyset.encode("x").substring(1),
+        "dW5vdC1hLXV1aWQ"}) {
+      IllegalArgumentException e = Assert.assertThrows(IllegalArgumentException.class,
+          () -> Keyset.decode(cursor));
+      Assert.assertEquals("Invalid cursor " + cursor, e.getMessage());
+    }
+  }
+
+  @Test
+  public void column() {
+    Assert.assertEquals("t.cluster_id", new Keyset("t.cluster_id", 10).getColumn());
+  }
+}
@@ -8,6 +8,7 @@ import io.restassured.response.ExtractableResponse;
 import io.restassured.response.Response;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.json.JsonArray;
@@ -37,6 +38,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -51,12 +53,15 @@ import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
 
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.sqlclient.Row;
 import io.vertx.sqlclient.Tuple;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.awaitility.Awaitility;
 import org.folio.metastorage.module.impl.ModuleScripts;
 import org.folio.metastorage.server.entity.CodeModuleEntity;
+import org.folio.okapi.common.GenericCompositeFuture;
 import org.folio.okapi.common.XOkapiHeaders;
 import org.folio.tlib.postgres.TenantPgPool;
 import org.folio.tlib.postgres.testing.TenantPgPoolContainer;
@@ -96,6 +101,7 @@ public class MainVerticleTest {
   static final int MOCK_PORT = 9232;
   static final int UNUSED_PORT = 9233;
   static final int NET_PORT = 9234;
+  static final int MODULE_PORT_2 = 9236;
   static final String MOCK_URL = "http://localhost:" + MOCK_PORT;
   static final String TENANT_1 = "tenant1";
   static final String TENANT_2 = "tenant2";
@@ -123,6 +129,13 @@ public class MainVerticleTest {
     vertx = Vertx.vertx();
     WebClient webClient = WebClient.create(vertx);
 
+    MatchKeyConfigCache.setConnectOptions(new PgConnectOptions()
+        .setHost(postgresSQLContainer.getHost())
+        .setPort(postgresSQLContainer.getFirstMappedPort())
+        .setDatabase(postgresSQLContainer.getDatabaseName())
+        .setUser(postgresSQLContainer.getUsername())
+        .setPassword(postgresSQLContainer.getPassword()));
+
     RestAssured.config = RestAssuredConfig.config()
         .httpClient(HttpClientConfig.httpClientConfig()
             .setParam("http.socket.timeout", 15000)
@@ -614,7 +627,10 @@ public class MainVerticleTest {
         .header("Content-Type", "application/json")
         .get("/meta-storage/records/" + globalId)
         .then().statusCode(200)
-        .body("sourceId", is(sourceId));
+        .contentType("application/json")
+        .body("globalId", is(globalId))
+        .body("sourceId", is(sourceId))
+        .body("payload.marc.leader", is("00914naa  2200337   450 "));
 
     RestAssured.given()
         .header(XOkapiHeaders.TENANT, TENANT_1)
@@ -660,6 +676,517 @@ public class MainVerticleTest {
 
   }
 
+  @Test
+  public void ingestRecordsCursor() {
+    JsonArray records = new JsonArray();
+    for (int i = 0; i < 5; i++) {
+      records.add(new JsonObject()
+          .put("localId", "HRID0" + i)
+          .put("payload", new JsonObject().put("inventory", new JsonObject().put("isbn", "" + i))));
+    }
+    ingestRecords(records, "SOURCE-1");
+
+    Set<String> globalIds = new HashSet<>();
+    String cursor = "*";
+    int pages = 0;
+    while (cursor != null) {
+      String res = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("limit", "2")
+          .param("cursor", cursor)
+          .param("count", "exact")
+          .get("/meta-storage/records")
+          .then().statusCode(200)
+          .body("resultInfo.totalRecords", is(5))
+          .extract().body().asString();
+      JsonObject jsonResponse = new JsonObject(res);
+      JsonArray items = jsonResponse.getJsonArray("items");
+      for (int i = 0; i < items.size(); i++) {
+        Assert.assertTrue(globalIds.add(items.getJsonObject(i).getString("globalId")));
+      }
+      cursor = jsonResponse.getJsonObject("resultInfo").getString("next");
+      pages++;
+    }
+    Assert.assertEquals(3, pages);
+    Assert.assertEquals(5, globalIds.size());
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("limit", "2")
+        .get("/meta-storage/records")
+        .then().statusCode(200)
+        .body("items", hasSize(2))
+        .body("resultInfo.next", is(nullValue()));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("cursor", "*")
+        .param("offset", "1")
+        .get("/meta-storage/records")
+        .then().statusCode(400)
+        .contentType("text/plain")
+        .body(is("cursor can not be combined with offset"));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("cursor", "*")
+        .param("query", "sourceId=SOURCE-1 sortby localId")
+        .get("/meta-storage/records")
+        .then().statusCode(400)
+        .contentType("text/plain")
+        .body(is("cursor can not be combined with sortby"));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("cursor", "!")
+        .get("/meta-storage/records")
+        .then().statusCode(400)
+        .contentType("text/plain")
+        .body(is("Invalid cursor !"));
+  }
+
+  @Test
+  public void ingestRecordsSmallWriteQueue() {
+    JsonArray records = new JsonArray();
+    for (int i = 0; i < 10; i++) {
+      records.add(new JsonObject()
+          .put("localId", "HRID" + i)
+          .put("payload", new JsonObject().put("marc", new JsonObject()
+              .put("leader", "x".repeat(10000)))));
+    }
+    ingestRecords(records, "SOURCE-1");
+
+    int fetchSize = Storage.sqlStreamFetchSize;
+    Storage.sqlStreamFetchSize = 2;
+    Storage.setStreamWriteQueueMaxSize(1);
+    try {
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .get("/meta-storage/records")
+          .then().statusCode(200)
+          .body("items", hasSize(10))
+          .body("items[9].payload.marc.leader", hasLength(10000));
+    } finally {
+      Storage.sqlStreamFetchSize = fetchSize;
+      Storage.setStreamWriteQueueMaxSize(65536);
+    }
+  }
+
+  @Test
+  public void ingestRecordsStatementTimeout() {
+    JsonArray records = new JsonArray()
+        .add(new JsonObject()
+            .put("localId", "HRID01")
+            .put("payload", new JsonObject().put("inventory", new JsonObject().put("isbn", "1"))));
+    ingestRecords(records, "SOURCE-1");
+
+    StreamTransaction.setStatementTimeout(10000);
+    try {
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("count", "exact")
+          .get("/meta-storage/records")
+          .then().statusCode(200)
+          .body("items", hasSize(1))
+          .body("resultInfo.totalRecords", is(1));
+    } finally {
+      StreamTransaction.setStatementTimeout(0);
+    }
+  }
+
+  static long openStreamCount(Storage storage) throws Exception {
+    return storage.getPool()
+        .preparedQuery("SELECT COUNT(*) FROM pg_stat_activity"
+            + " WHERE state = 'idle in transaction' AND query LIKE $1")
+        .execute(Tuple.of("%" + storage.getGlobalRecordTable() + "%"))
+        .map(rowSet -> rowSet.iterator().next().getLong(0))
+        .toCompletionStage().toCompletableFuture().get();
+  }
+
+  @Test
+  public void ingestRecordsClientDisconnect() throws Exception {
+    JsonArray records = new JsonArray();
+    for (int i = 0; i < 200; i++) {
+      records.add(new JsonObject()
+          .put("localId", "HRID" + i)
+          .put("payload", new JsonObject().put("marc", new JsonObject()
+              .put("leader", "x".repeat(100000)))));
+    }
+    ingestRecords(records, "SOURCE-1");
+
+    // request directly, so that closing the socket closes the response
+    NetSocket socket = vertx.createNetClient().connect(MODULE_PORT, "localhost")
+        .toCompletionStage().toCompletableFuture().get();
+    Promise<Void> received = Promise.promise();
+    socket.handler(buf -> {
+      socket.pause();
+      received.tryComplete();
+    });
+    socket.write("GET /meta-storage/records HTTP/1.1\r\n"
+        + "Host: localhost\r\n"
+        + XOkapiHeaders.TENANT + ": " + TENANT_1 + "\r\n\r\n");
+    received.future().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+    // the response is far larger than socket buffers, so it waits mid-stream
+    Storage storage = new Storage(vertx, TENANT_1);
+    Awaitility.await().atMost(Duration.ofSeconds(5))
+        .until(() -> openStreamCount(storage), is(1L));
+
+    socket.close().toCompletionStage().toCompletableFuture().get();
+
+    // transaction is rolled back and connection returned without reading the rest
+    Awaitility.await().atMost(Duration.ofSeconds(5))
+        .until(() -> openStreamCount(storage), is(0L));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("limit", "1")
+        .param("count", "exact")
+        .get("/meta-storage/records")
+        .then().statusCode(200)
+        .body("items", hasSize(1))
+        .body("resultInfo.totalRecords", is(200));
+  }
+
+  @Test
+  public void ingestRecordsSameLocalId() {
+    String sourceId = "SOURCE-1";
+    JsonArray records = new JsonArray()
+        .add(new JsonObject()
+            .put("localId", "HRID01")
+            .put("payload", new JsonObject().put("inventory", new JsonObject().put("isbn", "1"))))
+        .add(new JsonObject()
+            .put("localId", "HRID02")
+            .put("payload", new JsonObject().put("inventory", new JsonObject().put("isbn", "2"))))
+        .add(new JsonObject()
+            .put("localId", "HRID01")
+            .put("payload", new JsonObject().put("inventory", new JsonObject().put("isbn", "3"))))
+        .add(new JsonObject()
+            .put("localId", "HRID02")
+            .put("delete", true));
+    ingestRecords(records, sourceId);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .param("count", "exact")
+        .get("/meta-storage/records")
+        .then().statusCode(200)
+        .body("items", hasSize(1))
+        .body("items[0].localId", is("HRID01"))
+        .body("items[0].payload.inventory.isbn", is("3"))
+        .body("resultInfo.totalRecords", is(1));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .param("query", "cql.allRecords=true")
+        .delete("/meta-storage/records")
+        .then().statusCode(204);
+  }
+
+  @Test
+  public void ingestRecordsBulk() {
+    createIsbnMatchKey();
+    JsonArray records = new JsonArray()
+        .add(new JsonObject()
+            .put("localId", "HRID01")
+            .put("payload", new JsonObject().put("inventory", new JsonObject()
+                .put("isbn", new JsonArray().add("1")))))
+        .add(new JsonObject()
+            .put("localId", "HRID02")
+            .put("payload", new JsonObject().put("inventory", new JsonObject()
+                .put("isbn", new JsonArray().add("1").add("2")))))
+        .add(new JsonObject()
+            .put("localId", "HRID03")
+            .put("payload", new JsonObject().put("inventory", new JsonObject()
+                .put("isbn", new JsonArray().add("3")))))
+        .add(new JsonObject()
+            .put("localId", "HRID03")
+            .put("delete", true));
+    JsonObject request = new JsonObject()
+        .put("sourceId", SOURCE_ID_1)
+        .put("records", records);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .param("bulk", "true")
+        .body(request.encode())
+        .put("/meta-storage/records")
+        .then().statusCode(200);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .param("count", "exact")
+        .get("/meta-storage/records")
+        .then().statusCode(200)
+        .body("items", hasSize(2))
+        .body("resultInfo.totalRecords", is(2));
+
+    String s = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .param("matchkeyid", "isbn")
+        .get("/meta-storage/clusters")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("items", hasSize(1))
+        .extract().body().asString();
+    verifyClusterResponse(s, List.of(List.of("HRID01", "HRID02")));
+
+    request.put("records", new JsonArray()
+        .add(new JsonObject()
+            .put("localId", "HRID01")
+            .put("delete", true))
+        .add(new JsonObject()
+            .put("localId", "HRID04")));
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .param("bulk", "true")
+        .body(request.encode())
+        .put("/meta-storage/records")
+        .then().statusCode(400)
+        .body(is("payload required"));
+
+    request.put("records", new JsonArray()
+        .add(new JsonObject()
+            .put("localId", "HRID01")
+            .put("delete", true)));
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .param("bulk", "true")
+        .body(request.encode())
+        .put("/meta-storage/records")
+        .then().statusCode(200);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .get("/meta-storage/records")
+        .then().statusCode(200)
+        .body("items", hasSize(1))
+        .body("items[0].localId", is("HRID02"));
+  }
+
+  @Test
+  public void ingestRecordsChunks() {
+    createIsbnMatchKey();
+    int chunkSize = Storage.mergeChunkSize;
+    Storage.mergeChunkSize = 2;
+    try {
+      // clusters span chunks: HRID01..HRID04 share match values along the chain
+      JsonArray records = new JsonArray();
+      for (int i = 1; i <= 5; i++) {
+        records.add(new JsonObject()
+            .put("localId", "HRID0" + i)
+            .put("payload", new JsonObject().put("inventory", new JsonObject()
+                .put("isbn", new JsonArray().add("" + i).add("" + (i < 4 ? i + 1 : i))))));
+      }
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .header("Content-Type", "application/json")
+          .param("bulk", "true")
+          .body(new JsonObject().put("sourceId", SOURCE_ID_1).put("records", records).encode())
+          .put("/meta-storage/records")
+          .then().statusCode(200);
+
+      String s = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("matchkeyid", "isbn")
+          .get("/meta-storage/clusters")
+          .then().statusCode(200)
+          .body("items", hasSize(2))
+          .extract().body().asString();
+      verifyClusterResponse(s, List.of(List.of("HRID01", "HRID02", "HRID03", "HRID04"),
+          List.of("HRID05")));
+
+      String id = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .header("Content-Type", "application/json")
+          .body(new JsonObject().put("sourceId", SOURCE_ID_1).encode())
+          .post("/meta-storage/ingest-jobs")
+          .then().statusCode(201)
+          .extract().path("id");
+
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .header("Content-Type", "application/json")
+          .body(new JsonArray()
+              .add(new JsonObject().put("localId", "HRID01").put("delete", true))
+              .add(new JsonObject().put("localId", "HRID04").put("delete", true))
+              .add(new JsonObject()
+                  .put("localId", "HRID06")
+                  .put("payload", new JsonObject().put("inventory", new JsonObject()
+                      .put("isbn", new JsonArray().add("5")))))
+              .encode())
+          .put("/meta-storage/ingest-jobs/" + id)
+          .then().statusCode(200);
+
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("commit", "true")
+          .delete("/meta-storage/ingest-jobs/" + id)
+          .then().statusCode(204);
+
+      s = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("matchkeyid", "isbn")
+          .get("/meta-storage/clusters")
+          .then().statusCode(200)
+          .body("items", hasSize(2))
+          .extract().body().asString();
+      verifyClusterResponse(s, List.of(List.of("HRID02", "HRID03"),
+          List.of("HRID05", "HRID06")));
+    } finally {
+      Storage.mergeChunkSize = chunkSize;
+    }
+  }
+
+  @Test
+  public void ingestJobs() {
+    createIsbnMatchKey();
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .body(new JsonObject().put("sourceId", "a b").encode())
+        .post("/meta-storage/ingest-jobs")
+        .then().statusCode(400);
+
+    String id = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .body(new JsonObject().put("sourceId", SOURCE_ID_1).encode())
+        .post("/meta-storage/ingest-jobs")
+        .then().statusCode(201)
+        .contentType("application/json")
+        .body("sourceId", is(SOURCE_ID_1))
+        .body("sourceVersion", is(1))
+        .extract().path("id");
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .body(new JsonArray()
+            .add(new JsonObject()
+                .put("localId", "HRID01")
+                .put("payload", new JsonObject().put("inventory", new JsonObject()
+                    .put("isbn", new JsonArray().add("1")))))
+            .add(new JsonObject()
+                .put("localId", "HRID02")
+                .put("payload", new JsonObject().put("inventory", new JsonObject()
+                    .put("isbn", new JsonArray().add("2")))))
+            .encode())
+        .put("/meta-storage/ingest-jobs/" + id)
+        .then().statusCode(200);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .body(new JsonArray()
+            .add(new JsonObject()
+                .put("localId", "HRID02")
+                .put("payload", new JsonObject().put("inventory", new JsonObject()
+                    .put("isbn", new JsonArray().add("1")))))
+            .add(new JsonObject()
+                .put("localId", "HRID03")
+                .put("payload", new JsonObject().put("inventory", new JsonObject()
+                    .put("isbn", new JsonArray().add("3")))))
+            .encode())
+        .put("/meta-storage/ingest-jobs/" + id)
+        .then().statusCode(200);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/meta-storage/ingest-jobs/" + id)
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("id", is(id))
+        .body("numberOfRecords", is(3));
+
+    // nothing visible before commit
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/meta-storage/records")
+        .then().statusCode(200)
+        .body("items", hasSize(0));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("commit", "true")
+        .delete("/meta-storage/ingest-jobs/" + id)
+        .then().statusCode(204);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/meta-storage/records")
+        .then().statusCode(200)
+        .body("items", hasSize(3));
+
+    String s = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("matchkeyid", "isbn")
+        .get("/meta-storage/clusters")
+        .then().statusCode(200)
+        .body("items", hasSize(2))
+        .extract().body().asString();
+    verifyClusterResponse(s, List.of(List.of("HRID01", "HRID02"), List.of("HRID03")));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/meta-storage/ingest-jobs/" + id)
+        .then().statusCode(404)
+        .body(is("Ingest job " + id + " not found"));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .body(new JsonArray().encode())
+        .put("/meta-storage/ingest-jobs/" + id)
+        .then().statusCode(404);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .delete("/meta-storage/ingest-jobs/" + id)
+        .then().statusCode(404);
+
+    // rollback
+    id = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .body(new JsonObject().put("sourceId", SOURCE_ID_1).put("autoRollBackTimeout", 60).encode())
+        .post("/meta-storage/ingest-jobs")
+        .then().statusCode(201)
+        .body("autoRollBackTimeout", is(60))
+        .extract().path("id");
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .body(new JsonArray()
+            .add(new JsonObject()
+                .put("localId", "HRID01")
+                .put("delete", true))
+            .encode())
+        .put("/meta-storage/ingest-jobs/" + id)
+        .then().statusCode(200);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .delete("/meta-storage/ingest-jobs/" + id)
+        .then().statusCode(204);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/meta-storage/records")
+        .then().statusCode(200)
+        .body("items", hasSize(3));
+  }
+
   static String verifyOaiResponseRuntime(String s, String verb, List<String> identifiers, int length, JsonArray expRecords) {
     try {
       return verifyOaiResponse(s, verb, identifiers, length, expRecords);
@@ -931,6 +1458,41 @@ public class MainVerticleTest {
         .extract().body().asString();
     verifyClusterResponse(s, List.of(List.of("S101"), List.of("S102")));
 
+    // below threshold, so counted exactly
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("matchkeyid", "isbn")
+        .param("count", "estimate")
+        .get("/meta-storage/clusters")
+        .then().statusCode(200)
+        .body("resultInfo.totalRecords", is(2))
+        .body("resultInfo.estimated", is(nullValue()));
+
+    Storage.setCountEstimateThreshold(0);
+    try {
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("matchkeyid", "isbn")
+          .param("count", "estimate")
+          .get("/meta-storage/clusters")
+          .then().statusCode(200)
+          .body("items", hasSize(2))
+          .body("resultInfo.totalRecords", greaterThanOrEqualTo(0))
+          .body("resultInfo.estimated", is(true));
+
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("query", "sourceId=" + SOURCE_ID_1)
+          .param("count", "estimate")
+          .get("/meta-storage/records")
+          .then().statusCode(200)
+          .body("items", hasSize(2))
+          .body("resultInfo.totalRecords", greaterThanOrEqualTo(0))
+          .body("resultInfo.estimated", is(true));
+    } finally {
+      Storage.setCountEstimateThreshold(10000);
+    }
+
     s = RestAssured.given()
         .header(XOkapiHeaders.TENANT, TENANT_1)
         .header("Content-Type", "application/json")
@@ -1060,6 +1622,114 @@ public class MainVerticleTest {
     return matchKey;
   }
 
+  @Test
+  public void testMatchKeyConfigNotify(TestContext context) {
+    createIsbnMatchKey();
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/meta-storage/config/matchkeys/isbn")
+        .then().statusCode(200)
+        .body("params.expr", is("$.inventory.isbn[*]"));
+
+    // modify as if done by another instance
+    Storage storage = new Storage(vertx, TENANT_1);
+    storage.getPool().withTransaction(conn ->
+            conn.preparedQuery("UPDATE " + storage.matchKeyConfigTable + " SET params = $1")
+                .execute(Tuple.of(new JsonObject().put("expr", "$.inventory.issn[*]")))
+                .compose(x -> conn.preparedQuery("SELECT pg_notify($1, $2)")
+                    .execute(Tuple.of(MatchKeyConfigCache.CHANNEL, TENANT_1))))
+        .onComplete(context.asyncAssertSuccess());
+
+    Awaitility.await().atMost(Duration.ofSeconds(2)).until(() ->
+        RestAssured.given()
+            .header(XOkapiHeaders.TENANT, TENANT_1)
+            .get("/meta-storage/config/matchkeys/isbn")
+            .then().statusCode(200)
+            .extract().body().jsonPath().getString("params.expr"),
+        is("$.inventory.issn[*]"));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .delete("/meta-storage/config/matchkeys/isbn")
+        .then().statusCode(204);
+  }
+
+  static long listenerCount(Storage storage) throws Exception {
+    return storage.getPool()
+        .preparedQuery("SELECT COUNT(*) FROM pg_stat_activity WHERE query = $1")
+        .execute(Tuple.of("LISTEN " + MatchKeyConfigCache.CHANNEL))
+        .map(rowSet -> rowSet.iterator().next().getLong(0))
+        .toCompletionStage().toCompletableFuture().get();
+  }
+
+  @Test
+  public void testMatchKeyConfigReconnect() throws Exception {
+    createIsbnMatchKey();
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/meta-storage/config/matchkeys/isbn")
+        .then().statusCode(200)
+        .body("params.expr", is("$.inventory.isbn[*]"));
+
+    Storage storage = new Storage(vertx, TENANT_1);
+    Awaitility.await().atMost(Duration.ofSeconds(2))
+        .until(() -> listenerCount(storage), is(1L));
+
+    // listening connection is lost
+    storage.getPool().preparedQuery("SELECT pg_terminate_backend(pid) FROM pg_stat_activity"
+            + " WHERE query = $1")
+        .execute(Tuple.of("LISTEN " + MatchKeyConfigCache.CHANNEL))
+        .toCompletionStage().toCompletableFuture().get();
+
+    Awaitility.await().atMost(Duration.ofSeconds(5))
+        .until(() -> listenerCount(storage), is(1L));
+
+    // modify as if done by another instance
+    storage.getPool().withTransaction(conn ->
+            conn.preparedQuery("UPDATE " + storage.matchKeyConfigTable + " SET params = $1")
+                .execute(Tuple.of(new JsonObject().put("expr", "$.inventory.issn[*]")))
+                .compose(x -> conn.preparedQuery("SELECT pg_notify($1, $2)")
+                    .execute(Tuple.of(MatchKeyConfigCache.CHANNEL, TENANT_1))))
+        .toCompletionStage().toCompletableFuture().get();
+
+    Awaitility.await().atMost(Duration.ofSeconds(2)).until(() ->
+            RestAssured.given()
+                .header(XOkapiHeaders.TENANT, TENANT_1)
+                .get("/meta-storage/config/matchkeys/isbn")
+                .then().statusCode(200)
+                .extract().body().jsonPath().getString("params.expr"),
+        is("$.inventory.issn[*]"));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .delete("/meta-storage/config/matchkeys/isbn")
+        .then().statusCode(204);
+  }
+
+  @Test
+  public void testMatchKeyConfigListenerShared() throws Exception {
+    createIsbnMatchKey();
+
+    String deploymentId = vertx.deployVerticle(new MainVerticle(), new DeploymentOptions()
+            .setConfig(new JsonObject().put("port", Integer.toString(MODULE_PORT_2))))
+        .toCompletionStage().toCompletableFuture().get();
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/meta-storage/config/matchkeys/isbn")
+        .then().statusCode(200);
+
+    Storage storage = new Storage(vertx, TENANT_1);
+    Awaitility.await().atMost(Duration.ofSeconds(2))
+        .until(() -> listenerCount(storage), is(1L));
+
+    // the other instance still listens
+    vertx.undeploy(deploymentId).toCompletionStage().toCompletableFuture().get();
+    Assert.assertEquals(1L, listenerCount(storage));
+  }
+
   @Test
   public void testClustersSameKey() {
     createIssnMatchKey();
@@ -1090,18 +1760,67 @@ public class MainVerticleTest {
 
     String s = RestAssured.given()
         .header(XOkapiHeaders.TENANT, TENANT_1)
-        .header("Content-Type", "application/json")
+        .header("Content-Type", "application/json")
+        .param("matchkeyid", "issn")
+        .get("/meta-storage/clusters")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("items", hasSize(1))
+        .extract().body().asString();
+    verifyClusterResponse(s, List.of(List.of("S101", "S102", "S103")));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .param("query", "cql.allRecords=true")
+        .delete("/meta-storage/records")
+        .then().statusCode(204);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .delete("/meta-storage/config/matchkeys/issn")
+        .then().statusCode(204);
+  }
+
+  @Test
+  public void testClustersSameKeyParallel(TestContext context) {
+    createIssnMatchKey();
+
+    WebClient webClient = WebClient.create(vertx);
+    List<Future<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      JsonObject request = new JsonObject()
+          .put("sourceId", SOURCE_ID_1)
+          .put("records", new JsonArray()
+              .add(new JsonObject()
+                  .put("localId", "S" + (200 + i))
+                  .put("payload", new JsonObject()
+                      .put("inventory", new JsonObject().put("issn", new JsonArray().add("2")))
+                  )
+              ));
+      futures.add(webClient.putAbs(OKAPI_URL + "/meta-storage/records")
+          .putHeader(XOkapiHeaders.TENANT, TENANT_1)
+          .expect(ResponsePredicate.SC_OK)
+          .sendJsonObject(request)
+          .mapEmpty());
+    }
+    Async async = context.async();
+    GenericCompositeFuture.all(futures).onComplete(context.asyncAssertSuccess(x -> {
+      webClient.close();
+      async.complete();
+    }));
+    async.await();
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
         .param("matchkeyid", "issn")
         .get("/meta-storage/clusters")
         .then().statusCode(200)
-        .contentType("application/json")
         .body("items", hasSize(1))
-        .extract().body().asString();
-    verifyClusterResponse(s, List.of(List.of("S101", "S102", "S103")));
+        .body("items[0].records", hasSize(10));
 
     RestAssured.given()
         .header(XOkapiHeaders.TENANT, TENANT_1)
-        .header("Content-Type", "application/json")
         .param("query", "cql.allRecords=true")
         .delete("/meta-storage/records")
         .then().statusCode(204);
@@ -1612,6 +2331,32 @@ public class MainVerticleTest {
         .body("totalRecords", is(7))
     ;
 
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/meta-storage/config/matchkeys/" + matchKey.getString("id") + "/initialize")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("status", is("completed"))
+        .body("matchKeyIds", is(List.of("isbn")))
+        .body("totalRecords", is(7))
+        .body("estimatedRecords", is(7));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("async", "true")
+        .put("/meta-storage/config/matchkeys/" + matchKey.getString("id") + "/initialize")
+        .then().statusCode(202)
+        .contentType("application/json")
+        .body("matchKeyIds", is(List.of("isbn")));
+
+    Awaitility.await().atMost(Duration.ofSeconds(5)).until(() ->
+        RestAssured.given()
+            .header(XOkapiHeaders.TENANT, TENANT_1)
+            .get("/meta-storage/config/matchkeys/" + matchKey.getString("id") + "/initialize")
+            .then().statusCode(200)
+            .extract().body().jsonPath().getString("status"),
+        is("completed"));
+
     s = RestAssured.given()
         .header(XOkapiHeaders.TENANT, TENANT_1)
         .header("Content-Type", "application/json")
@@ -1672,11 +2417,196 @@ public class MainVerticleTest {
         .contentType("text/plain")
         .body(is("MatchKey isbn not found"));
 
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/meta-storage/config/matchkeys/" + matchKey.getString("id") + "/initialize")
+        .then().statusCode(404);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("query", "cql.allRecords=true")
+        .delete("/meta-storage/records")
+        .then().statusCode(204);
+  }
+
+  @Test
+  public void testInitializeMatchKeys() {
+    createIsbnMatchKey("manual");
+    JsonObject issnMatchKey = new JsonObject()
+        .put("id", "issn")
+        .put("method", "jsonpath")
+        .put("params", new JsonObject().put("expr", "$.inventory.issn[*]"))
+        .put("update", "manual");
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .body(issnMatchKey.encode())
+        .post("/meta-storage/config/matchkeys")
+        .then().statusCode(201);
+
+    JsonArray records = new JsonArray()
+        .add(new JsonObject()
+            .put("localId", "S101")
+            .put("payload", new JsonObject()
+                .put("inventory", new JsonObject()
+                    .put("isbn", new JsonArray().add("1"))
+                    .put("issn", new JsonArray().add("2"))))
+        )
+        .add(new JsonObject()
+            .put("localId", "S102")
+            .put("payload", new JsonObject()
+                .put("inventory", new JsonObject()
+                    .put("isbn", new JsonArray().add("1"))
+                    .put("issn", new JsonArray().add("3"))))
+        )
+        .add(new JsonObject()
+            .put("localId", "S103")
+            .put("payload", new JsonObject()
+                .put("inventory", new JsonObject()
+                    .put("isbn", new JsonArray().add("4"))
+                    .put("issn", new JsonArray().add("3"))))
+        );
+    ingestRecords(records, SOURCE_ID_1);
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .body(new JsonObject().put("matchKeyIds", new JsonArray().add("isbn").add("foo")).encode())
+        .post("/meta-storage/config/matchkeys/initialize")
+        .then().statusCode(404)
+        .contentType("text/plain")
+        .body(is("MatchKey foo not found"));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .body(new JsonObject().put("matchKeyIds", new JsonArray().add("issn").add("isbn")).encode())
+        .post("/meta-storage/config/matchkeys/initialize")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("totalRecords", is(3));
+
+    String s = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("matchkeyid", "isbn")
+        .get("/meta-storage/clusters")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("items", hasSize(2))
+        .extract().body().asString();
+    verifyClusterResponse(s, List.of(List.of("S101", "S102"), List.of("S103")));
+
+    s = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("matchkeyid", "issn")
+        .get("/meta-storage/clusters")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("items", hasSize(2))
+        .extract().body().asString();
+    verifyClusterResponse(s, List.of(List.of("S101"), List.of("S102", "S103")));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .get("/meta-storage/config/matchkeys/issn/initialize")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("status", is("completed"))
+        .body("matchKeyIds", is(List.of("isbn", "issn")))
+        .body("totalRecords", is(3));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .param("async", "true")
+        .body(new JsonObject().put("matchKeyIds", new JsonArray().add("isbn").add("issn")).encode())
+        .post("/meta-storage/config/matchkeys/initialize")
+        .then().statusCode(202)
+        .contentType("application/json")
+        .body("matchKeyIds", is(List.of("isbn", "issn")));
+
+    Awaitility.await().atMost(Duration.ofSeconds(5)).until(() ->
+        RestAssured.given()
+            .header(XOkapiHeaders.TENANT, TENANT_1)
+            .get("/meta-storage/config/matchkeys/isbn/initialize")
+            .then().statusCode(200)
+            .extract().body().jsonPath().getString("status"),
+        is("completed"));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .param("async", "true")
+        .param("rebuild", "true")
+        .body(new JsonObject().put("matchKeyIds", new JsonArray().add("isbn")).encode())
+        .post("/meta-storage/config/matchkeys/initialize")
+        .then().statusCode(400)
+        .contentType("text/plain")
+        .body(is("async can not be combined with rebuild"));
+
+    List<String> clusterIds = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("matchkeyid", "isbn")
+        .get("/meta-storage/clusters")
+        .then().statusCode(200)
+        .extract().body().jsonPath().getList("items.clusterId");
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .param("rebuild", "true")
+        .body(new JsonObject().put("matchKeyIds", new JsonArray().add("isbn").add("issn")).encode())
+        .post("/meta-storage/config/matchkeys/initialize")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("totalRecords", is(3))
+        .body("clusters.isbn", is(2))
+        .body("clusters.issn", is(2));
+
+    s = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("matchkeyid", "isbn")
+        .get("/meta-storage/clusters")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("items", hasSize(2))
+        .extract().body().asString();
+    verifyClusterResponse(s, List.of(List.of("S101", "S102"), List.of("S103")));
+    // unchanged clusters keep their identifiers
+    Assert.assertEquals(new HashSet<>(clusterIds),
+        new HashSet<>(new JsonObject(s).getJsonArray("items").stream()
+            .map(item -> ((JsonObject) item).getString("clusterId")).toList()));
+
+    s = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("matchkeyid", "issn")
+        .get("/meta-storage/clusters")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("items", hasSize(2))
+        .extract().body().asString();
+    verifyClusterResponse(s, List.of(List.of("S101"), List.of("S102", "S103")));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("rebuild", "true")
+        .put("/meta-storage/config/matchkeys/isbn/initialize")
+        .then().statusCode(200)
+        .contentType("application/json")
+        .body("totalRecords", is(3));
+
     RestAssured.given()
         .header(XOkapiHeaders.TENANT, TENANT_1)
         .param("query", "cql.allRecords=true")
         .delete("/meta-storage/records")
         .then().statusCode(204);
+
+    for (String id : List.of("isbn", "issn")) {
+      RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .delete("/meta-storage/config/matchkeys/" + id)
+          .then().statusCode(204);
+    }
   }
 
   @Test
@@ -1957,6 +2887,155 @@ public class MainVerticleTest {
 
   }
 
+  static long oaiRecordCacheCount(Storage storage) throws Exception {
+    return storage.getPool()
+        .query("SELECT COUNT(*) FROM " + storage.getOaiRecordCacheTable()).execute()
+        .map(rowSet -> rowSet.iterator().next().getLong(0))
+        .toCompletionStage().toCompletableFuture().get();
+  }
+
+  @Test
+  public void testOaiRecordCache() throws Exception {
+    createIsbnMatchKey();
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .body(new JsonObject().put("recordCache", true).encode())
+        .put("/meta-storage/config/oai")
+        .then()
+        .statusCode(204);
+
+    JsonArray records = new JsonArray();
+    for (int i = 1; i <= 2; i++) {
+      records.add(new JsonObject()
+          .put("localId", "S10" + i)
+          .put("payload", new JsonObject()
+              .put("marc", new JsonObject().put("leader", "00914naa  2200337   450 "))
+              .put("inventory", new JsonObject().put("isbn", new JsonArray().add("" + i)))));
+    }
+    ingestRecords(records, SOURCE_ID_1);
+
+    String s1 = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("set", "isbn")
+        .param("verb", "ListRecords")
+        .get("/meta-storage/oai")
+        .then().statusCode(200)
+        .contentType("text/xml")
+        .extract().body().asString();
+    verifyOaiResponse(s1, "ListRecords", new LinkedList<>(), 2, null);
+
+    Storage storage = new Storage(vertx, TENANT_1);
+    Awaitility.await().atMost(Duration.ofSeconds(10))
+        .until(() -> oaiRecordCacheCount(storage), is(2L));
+
+    String s2 = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("set", "isbn")
+        .param("verb", "ListRecords")
+        .get("/meta-storage/oai")
+        .then().statusCode(200)
+        .contentType("text/xml")
+        .extract().body().asString();
+    Assert.assertEquals(s1.substring(s1.indexOf("<ListRecords>")),
+        s2.substring(s2.indexOf("<ListRecords>")));
+
+    // changed cluster has a new datestamp, so it is rendered again
+    records.getJsonObject(0).getJsonObject("payload").getJsonObject("marc")
+        .put("leader", "00914naa  2200337   451 ");
+    ingestRecords(new JsonArray().add(records.getJsonObject(0)), SOURCE_ID_1);
+
+    String s3 = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("set", "isbn")
+        .param("verb", "ListRecords")
+        .get("/meta-storage/oai")
+        .then().statusCode(200)
+        .contentType("text/xml")
+        .extract().body().asString();
+    verifyOaiResponse(s3, "ListRecords", new LinkedList<>(), 2, null);
+    Assert.assertTrue(s3, s3.contains("00914naa  2200337   451 "));
+    Assert.assertTrue(s3, s3.contains("00914naa  2200337   450 "));
+
+    // an entry rendered from an older datestamp does not replace the current one
+    Awaitility.await().atMost(Duration.ofSeconds(10)).until(() -> storage.getPool()
+            .query("SELECT COUNT(*) FROM " + storage.getOaiRecordCacheTable() + " AS c, "
+                + storage.getClusterMetaTable() + " AS m"
+                + " WHERE c.cluster_id = m.cluster_id AND c.datestamp = m.datestamp").execute()
+            .map(rowSet -> rowSet.iterator().next().getLong(0))
+            .toCompletionStage().toCompletableFuture().get(),
+        is(2L));
+    Row entry = storage.getPool()
+        .query("SELECT cluster_id, datestamp, transformer, 'isbn' AS match_key_config_id FROM "
+            + storage.getOaiRecordCacheTable() + " LIMIT 1").execute()
+        .map(rowSet -> rowSet.iterator().next())
+        .toCompletionStage().toCompletableFuture().get();
+    ClusterRecordItem current = new ClusterRecordItem(entry);
+    ClusterRecordItem stale = new ClusterRecordItem(entry);
+    stale.datestamp = current.datestamp.minusSeconds(1);
+    OaiRecordCache recordCache = new OaiRecordCache(storage, entry.getString("transformer"));
+    recordCache.put(Map.of(stale, OaiRecordCache.compress("<stale/>")))
+        .toCompletionStage().toCompletableFuture().get();
+    Map<UUID, byte[]> cached = storage.getPool()
+        .withConnection(conn -> recordCache.get(conn, List.of(current)))
+        .toCompletionStage().toCompletableFuture().get();
+    Assert.assertTrue(cached.containsKey(current.clusterId));
+    Assert.assertNotEquals("<stale/>", OaiRecordCache.decompress(cached.get(current.clusterId)));
+  }
+
+  @Test
+  public void testOaiRecordCacheListIdentifiers() throws Exception {
+    createIsbnMatchKey();
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .header("Content-Type", "application/json")
+        .body(new JsonObject().put("recordCache", true).encode())
+        .put("/meta-storage/config/oai")
+        .then()
+        .statusCode(204);
+
+    JsonArray records = new JsonArray();
+    for (int i = 1; i <= 2; i++) {
+      records.add(new JsonObject()
+          .put("localId", "S10" + i)
+          .put("payload", new JsonObject()
+              .put("marc", new JsonObject().put("leader", "00914naa  2200337   450 "))
+              .put("inventory", new JsonObject().put("isbn", new JsonArray().add("" + i)))));
+    }
+    ingestRecords(records, SOURCE_ID_1);
+
+    // identifiers are rendered without match values, so they are not cached
+    String s = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("set", "isbn")
+        .param("verb", "ListIdentifiers")
+        .get("/meta-storage/oai")
+        .then().statusCode(200)
+        .contentType("text/xml")
+        .extract().body().asString();
+    verifyOaiResponse(s, "ListIdentifiers", new LinkedList<>(), 2, null);
+    Storage storage = new Storage(vertx, TENANT_1);
+    Assert.assertEquals(0L, oaiRecordCacheCount(storage));
+
+    for (int i = 0; i < 2; i++) {
+      s = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("set", "isbn")
+          .param("verb", "ListRecords")
+          .get("/meta-storage/oai")
+          .then().statusCode(200)
+          .contentType("text/xml")
+          .extract().body().asString();
+      verifyOaiResponse(s, "ListRecords", new LinkedList<>(), 2, null);
+      Assert.assertTrue(s, s.contains("<subfield code=\"m\">1</subfield>"));
+      Assert.assertTrue(s, s.contains("<subfield code=\"m\">2</subfield>"));
+      Awaitility.await().atMost(Duration.ofSeconds(10))
+          .until(() -> oaiRecordCacheCount(storage), is(2L));
+    }
+  }
+
   @Test
   @java.lang.SuppressWarnings("squid:S5961")
   public void testOaiSimple() throws XMLStreamException, IOException, SAXException {
@@ -2453,6 +3532,76 @@ public class MainVerticleTest {
         .then().statusCode(204);
   }
 
+  static List<String> oaiIdentifiersInOrder(Storage storage, String matchKeyConfigId)
+      throws Exception {
+    return storage.getPool()
+        .preparedQuery("SELECT cluster_id FROM " + storage.getClusterMetaTable()
+            + " WHERE match_key_config_id = $1 ORDER BY datestamp, cluster_id")
+        .execute(Tuple.of(matchKeyConfigId))
+        .map(rowSet -> {
+          List<String> identifiers = new ArrayList<>();
+          rowSet.forEach(row ->
+              identifiers.add(OaiService.encodeOaiIdentifier(row.getUUID("cluster_id"))));
+          return identifiers;
+        })
+        .toCompletionStage().toCompletableFuture().get();
+  }
+
+  @Test
+  public void testOaiListChunks() throws Exception {
+    createIsbnMatchKey();
+
+    // more clusters than the chunk size of ClusterRecordStream
+    JsonArray records = new JsonArray();
+    for (int i = 0; i < 250; i++) {
+      records.add(new JsonObject()
+          .put("localId", "S" + i)
+          .put("payload", new JsonObject()
+              .put("marc", new JsonObject().put("leader", "00914naa  2200337   450 "))
+              .put("inventory", new JsonObject().put("isbn", new JsonArray().add("" + i)))));
+    }
+    ingestRecords(records, SOURCE_ID_1);
+    JsonArray deletes = new JsonArray();
+    for (int i = 0; i < 250; i += 25) {
+      deletes.add(new JsonObject().put("localId", "S" + i).put("delete", true));
+    }
+    ingestRecords(deletes, SOURCE_ID_1);
+
+    List<String> expected = oaiIdentifiersInOrder(new Storage(vertx, TENANT_1), "isbn");
+    Assert.assertEquals(250, expected.size());
+
+    for (String verb : List.of("ListRecords", "ListIdentifiers")) {
+      List<String> identifiers = new LinkedList<>();
+      String s1 = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("set", "isbn")
+          .param("verb", verb)
+          .param("limit", "220")
+          .get("/meta-storage/oai")
+          .then().statusCode(200)
+          .contentType("text/xml")
+          .extract().body().asString();
+      String token = verifyOaiResponse(s1, verb, identifiers, 220, null);
+      Assert.assertNotNull(s1, token);
+      Assert.assertEquals(expected.get(220), OaiService.encodeOaiIdentifier(
+          new ResumptionToken(token).getId()));
+
+      String s2 = RestAssured.given()
+          .header(XOkapiHeaders.TENANT, TENANT_1)
+          .param("verb", verb)
+          .param("limit", "220")
+          .param("resumptionToken", token)
+          .get("/meta-storage/oai")
+          .then().statusCode(200)
+          .contentType("text/xml")
+          .extract().body().asString();
+      Assert.assertNull(s2, verifyOaiResponse(s2, verb, identifiers, 30, null));
+
+      Assert.assertEquals(expected, identifiers);
+      Assert.assertEquals(10, (s1 + s2).split("status=\"deleted\"", -1).length - 1);
+    }
+  }
+
   @Test
   public void testOaiDatestamp() throws XMLStreamException, InterruptedException, IOException, SAXException {
     String time0 = Instant.now(Clock.systemUTC()).minusSeconds(1L).truncatedTo(ChronoUnit.SECONDS).toString();
@@ -2527,6 +3676,7 @@ public class MainVerticleTest {
         .extract().body().asString();
     verifyOaiResponse(s, "ListRecords", identifiers, 0, null);
 
+    // unchanged records do not update datestamp
     ingestRecords(records1, SOURCE_ID_1);
     s = RestAssured.given()
         .header(XOkapiHeaders.TENANT, TENANT_1)
@@ -2537,7 +3687,21 @@ public class MainVerticleTest {
         .then().statusCode(200)
         .contentType("text/xml")
         .extract().body().asString();
-    verifyOaiResponse(s, "ListRecords", identifiers, 3, null);
+    verifyOaiResponse(s, "ListRecords", identifiers, 0, null);
+
+    records1.getJsonObject(0).getJsonObject("payload").getJsonObject("inventory")
+        .put("title", "changed");
+    ingestRecords(records1, SOURCE_ID_1);
+    s = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, TENANT_1)
+        .param("verb", "ListRecords")
+        .param("from", time3)
+        .param("metadataPrefix", "marcxml")
+        .get("/meta-storage/oai")
+        .then().statusCode(200)
+        .contentType("text/xml")
+        .extract().body().asString();
+    verifyOaiResponse(s, "ListRecords", identifiers, 1, null);
 
     RestAssured.given()
         .header(XOkapiHeaders.TENANT, TENANT_1)
@@ -0,0 +1,38 @@
+package org.folio.metastorage.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+public class MatchKeyInitializeJobTest {
+
+  @Test
+  public void partitionBounds() {
+    Assert.assertEquals(List.of(UUID.fromString("00000000-0000-0000-0000-000000000000")),
+        MatchKeyInitializeJob.partitionBounds(1));
+    Assert.assertEquals(List.of(
+            UUID.fromString("00000000-0000-0000-0000-000000000000"),
+            UUID.fromString("40000000-0000-0000-0000-000000000000"),
+            UUID.fromString("80000000-0000-0000-0000-000000000000"),
+            UUID.fromString("c0000000-0000-0000-0000-000000000000")),
+        MatchKeyInitializeJob.partitionBounds(4));
+    Assert.assertEquals(3, MatchKeyInitializeJob.partitionBounds(3).size());
+  }
+
+  @Test
+  public void setPartitions() {
+    Assert.assertThrows(IllegalArgumentException.class,
+        () -> MatchKeyInitializeJob.setPartitions(0));
+  }
+
+  @Test
+  public void isStale() {
+    LocalDateTime now = LocalDateTime.now();
+    Assert.assertFalse(MatchKeyInitializeJob.isStale(now, now));
+    Assert.assertTrue(MatchKeyInitializeJob.isStale(
+        now.minusSeconds(MatchKeyInitializeJob.STALE_SECONDS + 1), now));
+  }
+}
@@ -0,0 +1,17 @@
+package org.folio.metastorage.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OaiRecordCacheTest {
+
+  @Test
+  public void compressDecompress() {
+    String metadata = "<record>" + "<datafield tag=\"245\">æøå</datafield>".repeat(100)
+        + "</record>";
+    byte[] compressed = OaiRecordCache.compress(metadata);
+    Assert.assertTrue(compressed.length < metadata.length());
+    Assert.assertEquals(metadata, OaiRecordCache.decompress(compressed));
+    Assert.assertEquals("", OaiRecordCache.decompress(OaiRecordCache.compress("")));
+  }
+}
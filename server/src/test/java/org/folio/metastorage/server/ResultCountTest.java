@@ -0,0 +1,30 @@
+package org.folio.metastorage.server;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResultCountTest {
+
+  @Test
+  public void planRows() {
+    JsonArray plan = new JsonArray()
+        .add(new JsonObject().put("Plan", new JsonObject()
+            .put("Node Type", "Seq Scan")
+            .put("Plan Rows", 1234)));
+    Assert.assertEquals(1234, ResultCount.planRows(plan));
+    Assert.assertEquals(1234, ResultCount.planRows(plan.encode()));
+    plan.getJsonObject(0).getJsonObject("Plan").put("Plan Rows", 1L << 40);
+    Assert.assertEquals(Integer.MAX_VALUE, ResultCount.planRows(plan));
+  }
+
+  @Test
+  public void counts() {
+    ResultCount resultCount = new ResultCount(List.of(10, 3), true);
+    Assert.assertEquals(10, resultCount.get(0));
+    Assert.assertEquals(3, resultCount.get(1));
+    Assert.assertTrue(resultCount.isEstimated());
+  }
+}
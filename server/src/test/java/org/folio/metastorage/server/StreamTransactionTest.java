@@ -0,0 +1,14 @@
+package org.folio.metastorage.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StreamTransactionTest {
+
+  @Test
+  public void setStatementTimeout() {
+    Assert.assertThrows(IllegalArgumentException.class,
+        () -> StreamTransaction.setStatementTimeout(-1));
+    StreamTransaction.setStatementTimeout(0);
+  }
+}
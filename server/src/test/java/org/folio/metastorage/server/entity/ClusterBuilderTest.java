@@ -64,4 +64,14 @@ public class ClusterBuilderTest {
     assertThat(gotRecs.getJsonObject(2).getString(ClusterBuilder.PAYLOAD_LABEL), is("d"));
     assertThat(gotRecs.getJsonObject(3).getString(ClusterBuilder.PAYLOAD_LABEL), is("a"));
   }
+
+  @Test
+  public void matchValues() {
+    UUID clusterId = UUID.randomUUID();
+    ClusterBuilder clusterBuilder = new ClusterBuilder(clusterId);
+    clusterBuilder.matchValues(new JsonArray().add("a").add("b"));
+    assertThat(clusterBuilder.build(), is(new JsonObject()
+        .put(ClusterBuilder.CLUSTER_ID_LABEL, clusterId.toString())
+        .put(ClusterBuilder.MATCH_VALUES_LABEL, new JsonArray().add("a").add("b"))));
+  }
 }
@@ -0,0 +1,153 @@
+package org.folio.metastorage.util;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Concurrency limit that adapts to observed latency (AIMD).
+ *
+ * <p>The limit is increased by one for each window of operations that completes without
+ * latency going up (additive increase). When the smoothed latency exceeds the baseline
+ * latency by a factor {@link #TOLERANCE} or an operation fails, the limit is reduced by
+ * {@link #BACKOFF}, at most once per window (multiplicative decrease). A window is the
+ * current limit number of operations.
+ *
+ * <p>The latency includes the time waiting for a database connection, so the limit backs
+ * off when operations start to queue in the pool. An instance may be shared by several
+ * streams; see {@link ReadStreamConsumer}.
+ */
+public class AdaptiveConcurrency {
+  private static final Logger log = LogManager.getLogger(AdaptiveConcurrency.class);
+
+  static final double TOLERANCE = 2.0;
+  static final double BACKOFF = 0.9;
+  static final double SMOOTHING = 0.1;
+  static final double BASELINE_DRIFT = 0.001;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private double limit;
+  private int inflight;
+  private int sinceDecrease;
+  private long baselineLatency;
+  private double smoothedLatency;
+  private final Deque<Runnable> waiters = new ArrayDeque<>();
+
+  /**
+   * Create adaptive concurrency limit.
+   * @param initialLimit initial limit
+   * @param minLimit minimum limit
+   * @param maxLimit maximum limit
+   */
+  public AdaptiveConcurrency(int initialLimit, int minLimit, int maxLimit) {
+    if (minLimit < 1 || maxLimit < minLimit
+        || initialLimit < minLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException("bad concurrency limits "
+          + initialLimit + " " + minLimit + " " + maxLimit);
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.limit = initialLimit;
+  }
+
+  /**
+   * Create fixed concurrency limit.
+   * @param limit the limit
+   */
+  public AdaptiveConcurrency(int limit) {
+    this(limit, limit, limit);
+  }
+
+  /**
+   * Current limit.
+   * @return number of concurrent operations allowed
+   */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public synchronized int getInflight() {
+    return inflight;
+  }
+
+  /**
+   * Register start of operation.
+   * @return true if limit is reached; caller should wait with {@link #whenAvailable(Runnable)}
+   */
+  public synchronized boolean begin() {
+    return ++inflight >= (int) limit;
+  }
+
+  /**
+   * Register end of operation.
+   * @param latencyNanos duration of operation in nanoseconds
+   * @param success whether operation succeeded
+   */
+  public void end(long latencyNanos, boolean success) {
+    List<Runnable> ready = new ArrayList<>();
+    synchronized (this) {
+      inflight--;
+      int old = (int) limit;
+      update(latencyNanos, success);
+      if (old != (int) limit) {
+        log.debug("concurrency limit {}", (int) limit);
+      }
+      for (int i = inflight; i < (int) limit && !waiters.isEmpty(); i++) {
+        ready.add(waiters.poll());
+      }
+    }
+    ready.forEach(Runnable::run);
+  }
+
+  /**
+   * Run handler when below limit.
+   *
+   * <p>The handler is run on the Vert.x context of the caller, if any.
+   * @param handler called when below limit
+   */
+  public void whenAvailable(Runnable handler) {
+    Context context = Vertx.currentContext();
+    Runnable task = context == null ? handler : () -> context.runOnContext(x -> handler.run());
+    synchronized (this) {
+      if (inflight >= (int) limit) {
+        waiters.add(task);
+        return;
+      }
+    }
+    task.run();
+  }
+
+  private void update(long latencyNanos, boolean success) {
+    if (minLimit == maxLimit) {
+      return;
+    }
+    sinceDecrease++;
+    if (success) {
+      if (baselineLatency == 0 || latencyNanos < baselineLatency) {
+        baselineLatency = latencyNanos;
+      } else {
+        // let baseline follow slowly so that it can recover from a lucky sample
+        baselineLatency += (long) ((latencyNanos - baselineLatency) * BASELINE_DRIFT);
+      }
+      smoothedLatency = smoothedLatency == 0.0 ? latencyNanos
+          : smoothedLatency + (latencyNanos - smoothedLatency) * SMOOTHING;
+      if (smoothedLatency <= baselineLatency * TOLERANCE) {
+        // only grow when at least half of the limit is in use
+        if (2 * (inflight + 1) >= limit) {
+          limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+        return;
+      }
+    }
+    if (sinceDecrease >= limit) {
+      limit = Math.max(minLimit, limit * BACKOFF);
+      sinceDecrease = 0;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package org.folio.metastorage.util;
+
+import io.vertx.core.Handler;
+import io.vertx.core.streams.ReadStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups items of a ReadStream into lists of at most batchSize items.
+ *
+ * <p>The last batch may be smaller; it is emitted just before the end handler is called.
+ */
+public class BatchReadStream<T> implements ReadStream<List<T>> {
+  private final ReadStream<T> stream;
+  private final int batchSize;
+  private List<T> batch;
+  private Handler<List<T>> handler;
+
+  /**
+   * Create batch read stream.
+   * @param stream stream of items
+   * @param batchSize maximum number of items in each batch
+   */
+  public BatchReadStream(ReadStream<T> stream, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be at least 1");
+    }
+    this.stream = stream;
+    this.batchSize = batchSize;
+    this.batch = new ArrayList<>(batchSize);
+  }
+
+  @Override
+  public ReadStream<List<T>> exceptionHandler(Handler<Throwable> handler) {
+    stream.exceptionHandler(handler);
+    return this;
+  }
+
+  @Override
+  public ReadStream<List<T>> handler(Handler<List<T>> handler) {
+    this.handler = handler;
+    if (handler == null) {
+      stream.handler(null);
+      return this;
+    }
+    stream.handler(item -> {
+      batch.add(item);
+      if (batch.size() >= batchSize) {
+        List<T> full = batch;
+        batch = new ArrayList<>(batchSize);
+        handler.handle(full);
+      }
+    });
+    return this;
+  }
+
+  @Override
+  public ReadStream<List<T>> pause() {
+    stream.pause();
+    return this;
+  }
+
+  @Override
+  public ReadStream<List<T>> resume() {
+    stream.resume();
+    return this;
+  }
+
+  @Override
+  public ReadStream<List<T>> fetch(long amount) {
+    stream.fetch(amount);
+    return this;
+  }
+
+  @Override
+  public ReadStream<List<T>> endHandler(Handler<Void> endHandler) {
+    stream.endHandler(end -> {
+      if (!batch.isEmpty() && handler != null) {
+        List<T> last = batch;
+        batch = new ArrayList<>();
+        handler.handle(last);
+      }
+      if (endHandler != null) {
+        endHandler.handle(end);
+      }
+    });
+    return this;
+  }
+}
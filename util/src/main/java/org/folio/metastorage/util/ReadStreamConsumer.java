@@ -14,14 +14,22 @@ public class ReadStreamConsumer<T, U> {
   private List<Throwable> errors = new ArrayList<>();
   private AtomicInteger ongoing = new AtomicInteger();
   private AtomicBoolean completed = new AtomicBoolean();
-  private final int maxConcurrent;
+  private final AdaptiveConcurrency concurrency;
 
   public ReadStreamConsumer(int maxConcurrent) {
-    this.maxConcurrent = maxConcurrent;
+    this.concurrency = new AdaptiveConcurrency(maxConcurrent);
   }
 
   public ReadStreamConsumer() {
-    this.maxConcurrent = 5;
+    this(5);
+  }
+
+  /**
+   * Create consumer with concurrency limit that may be shared with other consumers.
+   * @param concurrency concurrency limit
+   */
+  public ReadStreamConsumer(AdaptiveConcurrency concurrency) {
+    this.concurrency = concurrency;
   }
 
   /**
@@ -34,14 +42,16 @@ public class ReadStreamConsumer<T, U> {
     stream
         .pause()
         .handler(r -> {
-          if (ongoing.incrementAndGet() == maxConcurrent) {
+          ongoing.incrementAndGet();
+          long start = System.nanoTime();
+          if (concurrency.begin()) {
             stream.pause();
+            concurrency.whenAvailable(stream::resume);
           }
           consumer.apply(r)
               .onComplete(x -> {
-                if (ongoing.getAndDecrement() == maxConcurrent) {
-                  stream.resume();
-                }
+                ongoing.decrementAndGet();
+                concurrency.end(System.nanoTime() - start, x.succeeded());
                 if (x.failed() && errors.isEmpty()) {
                   errors.add(x.cause());
                 }
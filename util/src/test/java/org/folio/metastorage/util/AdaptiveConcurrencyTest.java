@@ -0,0 +1,92 @@
+package org.folio.metastorage.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyTest {
+
+  static void window(AdaptiveConcurrency concurrency, long latency, boolean success) {
+    int limit = concurrency.getLimit();
+    for (int i = 0; i < limit; i++) {
+      concurrency.begin();
+    }
+    for (int i = 0; i < limit; i++) {
+      concurrency.end(latency, success);
+    }
+  }
+
+  @Test
+  public void badLimits() {
+    Assert.assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrency(0));
+    Assert.assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrency(1, 2, 3));
+    Assert.assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrency(4, 2, 3));
+    Assert.assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrency(2, 2, 1));
+  }
+
+  @Test
+  public void fixed() {
+    AdaptiveConcurrency concurrency = new AdaptiveConcurrency(2);
+    Assert.assertFalse(concurrency.begin());
+    Assert.assertTrue(concurrency.begin());
+    Assert.assertEquals(2, concurrency.getInflight());
+    concurrency.end(1000L, true);
+    concurrency.end(1000000L, false);
+    for (int i = 0; i < 10; i++) {
+      window(concurrency, 1000000L, false);
+    }
+    Assert.assertEquals(2, concurrency.getLimit());
+    Assert.assertEquals(0, concurrency.getInflight());
+  }
+
+  @Test
+  public void increase() {
+    AdaptiveConcurrency concurrency = new AdaptiveConcurrency(2, 1, 10);
+    for (int i = 0; i < 100; i++) {
+      window(concurrency, 1000L, true);
+    }
+    Assert.assertEquals(10, concurrency.getLimit());
+  }
+
+  @Test
+  public void decreaseLatency() {
+    AdaptiveConcurrency concurrency = new AdaptiveConcurrency(8, 2, 10);
+    window(concurrency, 1000L, true);
+    int limit = concurrency.getLimit();
+    for (int i = 0; i < 5; i++) {
+      window(concurrency, 10000L, true);
+    }
+    Assert.assertTrue(concurrency.getLimit() < limit);
+    for (int i = 0; i < 20; i++) {
+      window(concurrency, 10000L, true);
+    }
+    Assert.assertEquals(2, concurrency.getLimit());
+  }
+
+  @Test
+  public void decreaseFailure() {
+    AdaptiveConcurrency concurrency = new AdaptiveConcurrency(8, 1, 10);
+    for (int i = 0; i < 100; i++) {
+      window(concurrency, 1000L, false);
+    }
+    Assert.assertEquals(1, concurrency.getLimit());
+  }
+
+  @Test
+  public void whenAvailable() {
+    AdaptiveConcurrency concurrency = new AdaptiveConcurrency(1);
+    AtomicInteger calls = new AtomicInteger();
+    concurrency.whenAvailable(calls::incrementAndGet);
+    Assert.assertEquals(1, calls.get());
+    Assert.assertTrue(concurrency.begin());
+    concurrency.whenAvailable(calls::incrementAndGet);
+    concurrency.whenAvailable(calls::incrementAndGet);
+    Assert.assertEquals(1, calls.get());
+    concurrency.end(1000L, true);
+    // only one waiter is woken up per free slot
+    Assert.assertEquals(2, calls.get());
+    concurrency.begin();
+    concurrency.end(1000L, true);
+    Assert.assertEquals(3, calls.get());
+  }
+}
@@ -0,0 +1,78 @@
+package org.folio.metastorage.util;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import java.util.LinkedList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class BatchReadStreamTest {
+  Vertx vertx;
+
+  @Before
+  public void before() {
+    vertx = Vertx.vertx();
+  }
+
+  @After
+  public void after(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void badBatchSize() {
+    Assert.assertThrows(IllegalArgumentException.class,
+        () -> new BatchReadStream<JsonObject>(null, 0));
+  }
+
+  @Test
+  public void batches(TestContext context) {
+    List<List<JsonObject>> batches = new LinkedList<>();
+    vertx.fileSystem().open("records-in.json", new OpenOptions())
+        .compose(asyncFile -> {
+          LargeJsonReadStream jors = new LargeJsonReadStream(asyncFile);
+          return new ReadStreamConsumer<List<JsonObject>, Void>(2)
+              .consume(new BatchReadStream<>(jors, 4), batch -> {
+                batches.add(batch);
+                return Future.succeededFuture();
+              })
+              .compose(x -> asyncFile.close());
+        })
+        .onComplete(context.asyncAssertSuccess(x -> {
+          context.assertEquals(3, batches.size());
+          context.assertEquals(4, batches.get(0).size());
+          context.assertEquals(4, batches.get(1).size());
+          context.assertEquals(2, batches.get(2).size());
+          context.assertEquals("a1", batches.get(0).get(0).getString("localId"));
+          context.assertEquals("a10", batches.get(2).get(1).getString("localId"));
+        }));
+  }
+
+  @Test
+  public void batchSizeExact(TestContext context) {
+    List<List<JsonObject>> batches = new LinkedList<>();
+    vertx.fileSystem().open("records-in.json", new OpenOptions())
+        .compose(asyncFile -> {
+          LargeJsonReadStream jors = new LargeJsonReadStream(asyncFile);
+          return new ReadStreamConsumer<List<JsonObject>, Void>()
+              .consume(new BatchReadStream<>(jors, 10), batch -> {
+                batches.add(batch);
+                return Future.succeededFuture();
+              })
+              .compose(x -> asyncFile.close());
+        })
+        .onComplete(context.asyncAssertSuccess(x -> {
+          context.assertEquals(1, batches.size());
+          context.assertEquals(10, batches.get(0).size());
+        }));
+  }
+}